@@ -0,0 +1,231 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Wrapper around a java class, or around a class read from a binary graph file (no java class) */
+class ClassWrapper
+	{
+	/** unique id generator */
+	private static final AtomicInteger ID_GENERATOR=new AtomicInteger(0);
+
+	/** unique id */
+	private int id= ID_GENERATOR.incrementAndGet();
+	/** the class observed, null if the class was read from a binary graph file */
+	private Class<?> clazz;
+	/** the names of the graph */
+	private final SymbolTable symbols;
+	/** symbol of the name of the class */
+	private final int name;
+	private final boolean isInterface;
+	/** name of the jar, computed on demand */
+	private String jarName=null;
+	/** did we already processed this class ? */
+	private boolean visited=false;
+	/** was selected by the user */
+	 boolean userTarget=false;
+	/** distance to user Target */
+	 int distancdeToUserTarget=Integer.MAX_VALUE;
+	
+	ClassWrapper(Class<?> clazz,SymbolTable symbols)
+		{
+		this.clazz=clazz;
+		this.symbols=symbols;
+		this.name=symbols.intern(clazz.getName());
+		this.isInterface=clazz.isInterface();
+		}
+	
+	/** a class read from a binary graph file */
+	ClassWrapper(SymbolTable symbols,int name,boolean isInterface,String jarName)
+		{
+		this.clazz=null;
+		this.symbols=symbols;
+		this.name=name;
+		this.isInterface=isInterface;
+		this.jarName=jarName;
+		}
+	
+	/** the names of the graph */
+	SymbolTable getSymbols()
+		{
+		return this.symbols;
+		}
+	
+	/** symbol of the name of the class */
+	int getNameSymbol()
+		{
+		return this.name;
+		}
+	
+	/** symbol of the package of the class, -1 for the default package and the arrays */
+	int getPackageSymbol()
+		{
+		if(isArray()) return -1;
+		return this.symbols.getPackage(this.name);
+		}
+	
+	/** same as Class.getSimpleName: the name after the last '.' or '$', without the digits of local and anonymous classes */
+	public String getSimpleName()
+		{
+		if(isArray()) return arrayName(true);
+		String s=this.symbols.toString(this.symbols.getSimpleName(this.name));
+		if(!this.symbols.contains(this.name, '$')) return s;
+		int i=0;
+		while(i< s.length() && Character.isDigit(s.charAt(i))) ++i;
+		return s.substring(i);
+		}
+	
+	/** same as Class.getCanonicalName: null for local and anonymous classes */
+	public String getCanonicalName()
+		{
+		if(isArray()) return arrayName(false);
+		return canonicalName(toString());
+		}
+	
+	private static String canonicalName(String s)
+		{
+		for(int i=s.indexOf('$');i!=-1;i=s.indexOf('$',i+1))
+			{
+			if(i+1< s.length() && Character.isDigit(s.charAt(i+1))) return null;
+			}
+		return s.replace('$', '.');
+		}
+	
+	/** is this an array: the name is a descriptor like '[Ljava.lang.String;' */
+	private boolean isArray()
+		{
+		return this.symbols.startsWith(this.name, "[");
+		}
+	
+	/** simple or canonical name of an array, decoded from its descriptor, e.g 'String[]' */
+	private String arrayName(boolean simple)
+		{
+		String s=toString();
+		int dims=0;
+		while(s.charAt(dims)=='[') ++dims;
+		String component;
+		switch(s.charAt(dims))
+			{
+			case 'Z': component="boolean"; break;
+			case 'B': component="byte"; break;
+			case 'C': component="char"; break;
+			case 'S': component="short"; break;
+			case 'I': component="int"; break;
+			case 'J': component="long"; break;
+			case 'F': component="float"; break;
+			case 'D': component="double"; break;
+			default:
+				{
+				component=s.substring(dims+1,s.length()-1);
+				if(simple)
+					{
+					int dot=component.lastIndexOf('.');
+					int dollar=component.lastIndexOf('$');
+					component=component.substring(Math.max(dot, dollar)+1);
+					/* nested class: remove the digits of a local or anonymous class */
+					if(dollar>dot) while(component.length()>0 && Character.isDigit(component.charAt(0))) component=component.substring(1);
+					}
+				else
+					{
+					component=canonicalName(component);
+					if(component==null) return null;
+					}
+				break;
+				}
+			}
+		StringBuilder sb=new StringBuilder(component);
+		for(int i=0;i< dims;++i) sb.append("[]");
+		return sb.toString();
+		}
+	
+	public Class<?> getWrappedClass()
+		{
+		return this.clazz;
+		}
+	
+	public int getId()
+		{
+		return id;
+		}
+	
+	public boolean isVisited() {
+		return visited;
+		}
+	
+	public void setVisited(boolean visited) {
+		this.visited = visited;
+		}
+	
+	@Override
+	public int hashCode()
+		{
+		return this.name;
+		}
+	
+	/** the classes of a graph are loaded by the same class loader: their names are unique */
+	@Override
+	public boolean equals(Object obj)
+		{
+		if(obj==this) return true;
+		if(obj==null || getClass()!=obj.getClass()) return false;
+		ClassWrapper other=ClassWrapper.class.cast(obj);
+		return other.symbols==this.symbols && other.name==this.name;
+		}
+	
+	public boolean isInterface()
+		{
+		return this.isInterface;
+		}
+	
+	/** returns the name of the package of this class, or '(default)' */
+	public String getPackageName()
+		{
+		int pack=getPackageSymbol();
+		return pack==-1?"(default)":this.symbols.toString(pack);
+		}
+	
+	/** returns the name of the jar containing this class, or '(runtime)' for the classes of the JVM */
+	public String getJarName()
+		{
+		if(this.jarName==null) this.jarName=jarNameOf(this.clazz);
+		return this.jarName;
+		}
+	
+	/** returns the name of the jar containing a class, or '(runtime)' for the classes of the JVM */
+	static String jarNameOf(Class<?> clazz)
+		{
+		java.security.CodeSource src=clazz.getProtectionDomain().getCodeSource();
+		if(src==null || src.getLocation()==null) return "(runtime)";
+		String path=src.getLocation().getPath();
+		if(path.endsWith("/")) path=path.substring(0,path.length()-1);
+		return path.substring(path.lastIndexOf('/')+1);
+		}
+	
+	@Override
+	public String toString()
+		{
+		return this.symbols.toString(this.name);
+		}
+	}
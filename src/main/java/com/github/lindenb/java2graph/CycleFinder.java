@@ -0,0 +1,229 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the strongly connected components (cycles) of the graph, at
+ * the class level or at the package level, using an iterative version
+ * of Tarjan's algorithm.
+ * @author lindenb
+ *
+ */
+class CycleFinder
+	{
+	/** granularity of the analysis */
+	enum Level
+		{
+		CLASS,
+		PACKAGE
+		};
+	
+	private final Level level;
+	/** relations followed by the analysis */
+	private final Set<Relation> relations;
+	/** node key (ClassWrapper or package name) to index */
+	private final Map<Object,Integer> key2index=new HashMap<Object,Integer>();
+	/** index to node key */
+	private final List<Object> keys=new ArrayList<Object>();
+	/** component of each node, -1 if the node is not in a cycle */
+	private int component[]=new int[0];
+	/** the cycles: names of the members, sorted */
+	private final List<List<String>> cycles=new ArrayList<List<String>>();
+	
+	CycleFinder(Level level,Set<Relation> relations)
+		{
+		this.level=level;
+		this.relations=(relations==null || relations.isEmpty()?EnumSet.allOf(Relation.class):EnumSet.copyOf(relations));
+		}
+	
+	private Object key(ClassWrapper cw)
+		{
+		return this.level==Level.PACKAGE?cw.getPackageName():cw;
+		}
+	
+	private int index(Object key)
+		{
+		Integer idx=this.key2index.get(key);
+		if(idx==null)
+			{
+			idx=this.keys.size();
+			this.keys.add(key);
+			this.key2index.put(key, idx);
+			}
+		return idx;
+		}
+	
+	/** computes the cycles for those links. Returns the number of cycles */
+	int find(Iterable<Link> links)
+		{
+		/* collect the links between two distinct nodes */
+		int edgeFrom[]=new int[1024];
+		int edgeTo[]=new int[1024];
+		int nEdges=0;
+		for(Link L:links)
+			{
+			if(!L.hasRelation(this.relations)) continue;
+			int from=index(key(L.getFrom()));
+			int to=index(key(L.getTo()));
+			if(from==to) continue;
+			if(nEdges==edgeFrom.length)
+				{
+				edgeFrom=Arrays.copyOf(edgeFrom, nEdges*2);
+				edgeTo=Arrays.copyOf(edgeTo, nEdges*2);
+				}
+			edgeFrom[nEdges]=from;
+			edgeTo[nEdges]=to;
+			++nEdges;
+			}
+		final int n=this.keys.size();
+		/* compressed adjacency: successors of v are successors[offset[v]..offset[v+1]) */
+		int offset[]=new int[n+1];
+		for(int i=0;i< nEdges;++i) offset[edgeFrom[i]+1]++;
+		for(int i=0;i< n;++i) offset[i+1]+=offset[i];
+		int successors[]=new int[nEdges];
+		int fill[]=Arrays.copyOf(offset, n);
+		for(int i=0;i< nEdges;++i) successors[fill[edgeFrom[i]]++]=edgeTo[i];
+		
+		/* iterative Tarjan */
+		int indexOf[]=new int[n];
+		int lowLink[]=new int[n];
+		boolean onStack[]=new boolean[n];
+		Arrays.fill(indexOf, -1);
+		this.component=new int[n];
+		Arrays.fill(this.component, -1);
+		int tarjanStack[]=new int[n];
+		int tarjanStackSize=0;
+		int callStack[]=new int[n];
+		int callEdge[]=new int[n];
+		int counter=0;
+		
+		for(int root=0;root< n;++root)
+			{
+			if(indexOf[root]!=-1) continue;
+			int depth=0;
+			callStack[0]=root;
+			callEdge[0]=0;
+			indexOf[root]=lowLink[root]=counter++;
+			tarjanStack[tarjanStackSize++]=root;
+			onStack[root]=true;
+			while(depth>=0)
+				{
+				int v=callStack[depth];
+				if(offset[v]+callEdge[depth]< offset[v+1])
+					{
+					int w=successors[offset[v]+callEdge[depth]++];
+					if(indexOf[w]==-1)
+						{
+						indexOf[w]=lowLink[w]=counter++;
+						tarjanStack[tarjanStackSize++]=w;
+						onStack[w]=true;
+						++depth;
+						callStack[depth]=w;
+						callEdge[depth]=0;
+						}
+					else if(onStack[w])
+						{
+						lowLink[v]=Math.min(lowLink[v], indexOf[w]);
+						}
+					continue;
+					}
+				/* all the successors of v were visited */
+				if(lowLink[v]==indexOf[v])
+					{
+					List<Integer> members=new ArrayList<Integer>();
+					int w;
+					do	{
+						w=tarjanStack[--tarjanStackSize];
+						onStack[w]=false;
+						members.add(w);
+						} while(w!=v);
+					if(members.size()>1)
+						{
+						List<String> names=new ArrayList<String>(members.size());
+						for(int m:members)
+							{
+							this.component[m]=this.cycles.size();
+							names.add(this.keys.get(m).toString());
+							}
+						Collections.sort(names);
+						this.cycles.add(names);
+						}
+					}
+				--depth;
+				if(depth>=0)
+					{
+					int u=callStack[depth];
+					lowLink[u]=Math.min(lowLink[u], lowLink[v]);
+					}
+				}
+			}
+		return this.cycles.size();
+		}
+	
+	/** the cycles found, each cycle is the sorted list of the names of its members */
+	List<List<String>> getCycles()
+		{
+		return this.cycles;
+		}
+	
+	/** returns the index of the cycle containing this class, or -1 */
+	int getCycle(ClassWrapper cw)
+		{
+		Integer idx=this.key2index.get(key(cw));
+		return idx==null?-1:this.component[idx];
+		}
+	
+	/** does this link belong to a cycle ? */
+	boolean isInCycle(Link L)
+		{
+		if(!L.hasRelation(this.relations)) return false;
+		Object k1=key(L.getFrom());
+		Object k2=key(L.getTo());
+		if(k1.equals(k2)) return false;
+		int c=getCycle(L.getFrom());
+		return c!=-1 && c==getCycle(L.getTo());
+		}
+	
+	/** does a cycle contain a class or a package whose name starts with this prefix ? */
+	boolean hasCycleIn(String prefix)
+		{
+		for(List<String> cycle:this.cycles)
+			{
+			for(String name:cycle)
+				{
+				if(name.startsWith(prefix)) return true;
+				}
+			}
+		return false;
+		}
+	}
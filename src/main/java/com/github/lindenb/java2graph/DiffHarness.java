@@ -0,0 +1,176 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Regression check of --diff-cp: generates a previous and a current synthetic
+ * classpath, compares the difference computed with a '.jar' target to the
+ * difference computed with the names of the classes of both jars.
+ * The program exits with an error if they differ or if no class was added.
+ * @author lindenb
+ *
+ */
+class DiffHarness
+	{
+	/** logger of java2graph */
+	private static final Logger LOG=Logger.getLogger("java2graph");
+	private final SyntheticClasspath generator=new SyntheticClasspath();
+	private File workDir=null;
+	/** number of classes in the previous classpath */
+	private int previousClasses=-1;
+	
+	/** names of the top-level classes of this jar */
+	private static Set<String> classNames(File jarFile) throws IOException
+		{
+		Set<String> names=new TreeSet<String>();
+		JarFile jar=new JarFile(jarFile);
+		try
+			{
+			Enumeration<JarEntry> entries=jar.entries();
+			while(entries.hasMoreElements())
+				{
+				String name=entries.nextElement().getName();
+				if(!name.endsWith(".class") || name.indexOf('$')!=-1 || name.indexOf('-')!=-1) continue;
+				names.add(name.substring(0,name.length()-6).replace('/', '.'));
+				}
+			}
+		finally
+			{
+			jar.close();
+			}
+		return names;
+		}
+	
+	/** runs java2graph --diff-cp with these targets, returns the JSON summary */
+	private String diff(String name,File previousJar,File currentJar,List<String> targets) throws IOException
+		{
+		File summary=new File(this.workDir,name+".json");
+		List<String> args=new ArrayList<String>();
+		args.add("--diff-cp");
+		args.add(previousJar.getPath());
+		args.add("--diff-summary");
+		args.add(summary.getPath());
+		args.add("-o");
+		args.add(new File(this.workDir,name+".dot").getPath());
+		args.add("-cp");
+		args.add(currentJar.getPath());
+		args.addAll(targets);
+		int status=Java2Graph.execute(args.toArray(new String[args.size()]));
+		if(status!=0) throw new RuntimeException("java2graph failed with status "+status+" : "+args);
+		return new String(Files.readAllBytes(summary.toPath()),Charset.forName("UTF-8")).trim();
+		}
+	
+	private int run(String[] args) throws IOException
+		{
+		int optind=0;
+		while(optind< args.length)
+			{
+			if(args[optind].equals("-h"))
+				{
+				System.err.println("Checks that --diff-cp with a '.jar' target reports the same differences as with the names of the classes.");
+				System.err.println("Usage: DiffHarness [options]");
+				System.err.println(" -dir <dir> working directory. Default: a temporary directory");
+				System.err.println(" -previous-classes (int) number of classes in the previous classpath. Default: two thirds of -classes");
+				SyntheticClasspath.usage();
+				return 0;
+				}
+			else if(args[optind].equals("-dir") && optind+1< args.length)
+				{
+				this.workDir=new File(args[++optind]);
+				}
+			else if(args[optind].equals("-previous-classes") && optind+1< args.length)
+				{
+				this.previousClasses=Integer.parseInt(args[++optind]);
+				}
+			else
+				{
+				int n=this.generator.parseOption(args, optind);
+				if(n==0)
+					{
+					System.err.println("bad argument " + args[optind]);
+					return -1;
+					}
+				optind+=n-1;
+				}
+			++optind;
+			}
+		if(this.workDir==null)
+			{
+			this.workDir=File.createTempFile("java2graph.", ".diff");
+			this.workDir.delete();
+			}
+		if(this.previousClasses< 0) this.previousClasses=(this.generator.countClasses*2)/3;
+		
+		/* both jars have the same name, in two directories */
+		this.generator.countJars=1;
+		int currentClasses=this.generator.countClasses;
+		File currentJar=this.generator.write(new File(this.workDir,"current")).get(0);
+		this.generator.countClasses=this.previousClasses;
+		File previousJar=this.generator.write(new File(this.workDir,"previous")).get(0);
+		this.generator.countClasses=currentClasses;
+		
+		List<String> targets=new ArrayList<String>();
+		targets.add(currentJar.getPath());
+		String byJar=diff("jar",previousJar,currentJar,targets);
+		
+		Set<String> names=classNames(previousJar);
+		names.addAll(classNames(currentJar));
+		String byName=diff("names",previousJar,currentJar,new ArrayList<String>(names));
+		
+		System.out.println("jar target:\t"+byJar.length()+" chars");
+		System.out.println("class names:\t"+byName.length()+" chars");
+		if(!byJar.equals(byName))
+			{
+			System.err.println("the differences with a '.jar' target and with the class names are not the same. See "+this.workDir);
+			return 1;
+			}
+		if(byJar.startsWith("{\"nodes\":{\"added\":{\"count\":0,"))
+			{
+			System.err.println("no added class between "+this.previousClasses+" and "+currentClasses+" classes. See "+this.workDir);
+			return 1;
+			}
+		return 0;
+		}
+	
+	public static void main(String[] args) throws IOException
+		{
+		LOG.setLevel(Level.OFF);
+		int status=new DiffHarness().run(args);
+		if(status!=0) System.exit(status);
+		}
+	}
@@ -0,0 +1,398 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Difference between two graphs. The classes are matched by name,
+ * the links by the names of their ends.
+ * @author lindenb
+ *
+ */
+class GraphDiff
+	{
+	enum Status
+		{
+		UNCHANGED,
+		ADDED,
+		REMOVED,
+		CHANGED
+		};
+	
+	/** a class in one or both graphs */
+	private static class Node
+		{
+		final String name;
+		int id;
+		/** is an interface in the old/new graph. null if absent */
+		Boolean oldInterface=null;
+		Boolean newInterface=null;
+		Status status=Status.UNCHANGED;
+		/** is only printed because it is the end of a modified link */
+		boolean context=false;
+		Node(String name)
+			{
+			this.name=name;
+			}
+		boolean isInterface()
+			{
+			return this.newInterface!=null?this.newInterface:this.oldInterface;
+			}
+		}
+	
+	/** a link in one or both graphs */
+	private static class Edge
+		{
+		Node from;
+		Node to;
+		/** relation and methods in the old/new graph. null if absent */
+		String oldLabel=null;
+		String newLabel=null;
+		Relation oldRelation=null;
+		Relation newRelation=null;
+		Status status=Status.UNCHANGED;
+		Relation getRelation()
+			{
+			return this.newRelation!=null?this.newRelation:this.oldRelation;
+			}
+		String getLabel()
+			{
+			if(this.status==Status.CHANGED) return this.oldLabel+" => "+this.newLabel;
+			return this.newLabel!=null?this.newLabel:this.oldLabel;
+			}
+		}
+	
+	private final Map<String,Node> nodes=new TreeMap<String,Node>();
+	private final Map<String,Edge> edges=new TreeMap<String,Edge>();
+	
+	GraphDiff(
+		Collection<ClassWrapper> oldClasses,Collection<Link> oldLinks,
+		Collection<ClassWrapper> newClasses,Collection<Link> newLinks
+		)
+		{
+		for(ClassWrapper c:oldClasses) node(c.toString()).oldInterface=c.isInterface();
+		for(ClassWrapper c:newClasses) node(c.toString()).newInterface=c.isInterface();
+		for(Link L:oldLinks)
+			{
+			Edge e=edge(L);
+			e.oldRelation=L.getRelation();
+			e.oldLabel=label(L);
+			}
+		for(Link L:newLinks)
+			{
+			Edge e=edge(L);
+			e.newRelation=L.getRelation();
+			e.newLabel=label(L);
+			}
+		
+		for(Node n:this.nodes.values())
+			{
+			if(n.oldInterface==null) n.status=Status.ADDED;
+			else if(n.newInterface==null) n.status=Status.REMOVED;
+			else if(!n.oldInterface.equals(n.newInterface)) n.status=Status.CHANGED;
+			}
+		for(Edge e:this.edges.values())
+			{
+			if(e.oldLabel==null) e.status=Status.ADDED;
+			else if(e.newLabel==null) e.status=Status.REMOVED;
+			else if(!e.oldLabel.equals(e.newLabel)) e.status=Status.CHANGED;
+			if(e.status==Status.UNCHANGED) continue;
+			/* a class whose links changed is changed */
+			if(e.from.status==Status.UNCHANGED) e.from.status=Status.CHANGED;
+			if(e.to.status==Status.UNCHANGED) e.to.context=true;
+			}
+		int id=0;
+		for(Node n:this.nodes.values())
+			{
+			n.id=(++id);
+			}
+		}
+	
+	private Node node(String name)
+		{
+		Node n=this.nodes.get(name);
+		if(n==null)
+			{
+			n=new Node(name);
+			this.nodes.put(name, n);
+			}
+		return n;
+		}
+	
+	private Edge edge(Link L)
+		{
+		String key=L.getFrom().toString()+" "+L.getTo().toString();
+		Edge e=this.edges.get(key);
+		if(e==null)
+			{
+			e=new Edge();
+			e.from=node(L.getFrom().toString());
+			e.to=node(L.getTo().toString());
+			this.edges.put(key, e);
+			}
+		return e;
+		}
+	
+	private static String label(Link L)
+		{
+		if(L.getRelation()==Relation.RETURNS || L.getRelation()==Relation.ARGUMENT )
+			{
+			StringBuilder sb=new StringBuilder(L.getRelation().name().toLowerCase());
+			sb.append(":");
+			for(String m: L.getMethods()) sb.append(" ").append(m);
+			return sb.toString();
+			}
+		return L.getRelation().name().toLowerCase();
+		}
+	
+	/** nodes to be printed */
+	private List<Node> printableNodes()
+		{
+		List<Node> L=new ArrayList<Node>();
+		for(Node n:this.nodes.values())
+			{
+			if(n.status!=Status.UNCHANGED || n.context) L.add(n);
+			}
+		return L;
+		}
+	
+	/** edges to be printed */
+	private List<Edge> printableEdges()
+		{
+		List<Edge> L=new ArrayList<Edge>();
+		for(Edge e:this.edges.values())
+			{
+			if(e.status!=Status.UNCHANGED) L.add(e);
+			}
+		return L;
+		}
+	
+	private static String dotColor(Status status)
+		{
+		switch(status)
+			{
+			case ADDED: return "green";
+			case REMOVED: return "red";
+			case CHANGED: return "orange";
+			default: return "gray";
+			}
+		}
+	
+	void printDot(PrintStream out)
+		{
+		out.println("digraph G{");
+		for(Node n:printableNodes())
+			{
+			out.print("id"+n.id+"[shape=rectangle,style=filled,");
+			if(n.status==Status.UNCHANGED)
+				{
+				out.print("fillcolor=white,color=gray,fontcolor=gray,");
+				}
+			else
+				{
+				out.print("fillcolor="+(n.isInterface()?"khaki":"gray77")+",color="+dotColor(n.status)+",penwidth=3,");
+				}
+			out.print("label=\""+n.name+"\"");
+			out.println("]");
+			}
+		for(Edge e:printableEdges())
+			{
+			out.print("id"+e.from.id+"->id"+e.to.id+"[");
+			out.print("color="+dotColor(e.status)+",fontcolor="+dotColor(e.status)+",");
+			if(e.status==Status.REMOVED) out.print("style=dashed,");
+			out.print("label=\""+e.getLabel()+"\"");
+			out.println("]");
+			}
+		out.println("}");
+		out.flush();
+		}
+	
+	private static void gexfColor(XMLStreamWriter w,Status status) throws XMLStreamException
+		{
+		int rgb[];
+		switch(status)
+			{
+			case ADDED: rgb=new int[]{0,160,0}; break;
+			case REMOVED: rgb=new int[]{220,0,0}; break;
+			case CHANGED: rgb=new int[]{255,165,0}; break;
+			default: rgb=new int[]{190,190,190}; break;
+			}
+		w.writeEmptyElement("viz:color");
+		w.writeAttribute("r", String.valueOf(rgb[0]));
+		w.writeAttribute("g", String.valueOf(rgb[1]));
+		w.writeAttribute("b", String.valueOf(rgb[2]));
+		}
+	
+	void printGexf(PrintStream out) throws XMLStreamException
+		{
+		XMLOutputFactory xmlfactory= XMLOutputFactory.newInstance();
+		XMLStreamWriter w= xmlfactory.createXMLStreamWriter(out,"UTF-8");
+		w.writeStartDocument("UTF-8","1.0");
+		w.writeStartElement("gexf");
+		w.writeAttribute("xmlns", "http://www.gexf.net/1.2draft");
+		w.writeAttribute("xmlns:viz","http://www.gexf.net/1.2draft/viz");
+		w.writeAttribute("version", "1.2");
+		w.writeStartElement("graph");
+		w.writeAttribute("mode", "static");
+		w.writeAttribute("defaultedgetype", "directed");
+		
+		for(String type:new String[]{"node","edge"})
+			{
+			w.writeStartElement("attributes");
+			w.writeAttribute("class",type);
+			w.writeAttribute("mode","static");
+			w.writeEmptyElement("attribute");
+			w.writeAttribute("id", "status");
+			w.writeAttribute("title", "status");
+			w.writeAttribute("type", "string");
+			w.writeEndElement();//attributes
+			}
+		
+		w.writeStartElement("nodes");
+		for(Node n:printableNodes())
+			{
+			w.writeStartElement("node");
+			w.writeAttribute("id", "N"+n.id);
+			w.writeAttribute("label", n.name);
+			gexfColor(w,n.status);
+			w.writeStartElement("attvalues");
+			w.writeEmptyElement("attvalue");
+			w.writeAttribute("for", "status");
+			w.writeAttribute("value", n.status.name());
+			w.writeEndElement();//attvalues
+			w.writeEndElement();//node
+			}
+		w.writeEndElement();//nodes
+		
+		int relid=0;
+		w.writeStartElement("edges");
+		for(Edge e:printableEdges())
+			{
+			w.writeStartElement("edge");
+			w.writeAttribute("id", "E"+(++relid));
+			w.writeAttribute("type", "directed");
+			w.writeAttribute("source","N"+e.from.id);
+			w.writeAttribute("target","N"+e.to.id);
+			w.writeAttribute("label",e.getLabel());
+			gexfColor(w,e.status);
+			w.writeStartElement("attvalues");
+			w.writeEmptyElement("attvalue");
+			w.writeAttribute("for", "status");
+			w.writeAttribute("value", e.status.name());
+			w.writeEndElement();//attvalues
+			w.writeEndElement();//edge
+			}
+		w.writeEndElement();//edges
+		w.writeEndElement();//graph
+		w.writeEndElement();//gexf
+		w.writeEndDocument();
+		w.flush();
+		}
+	
+	/** writes a JSON summary of the differences */
+	void printSummary(PrintStream out)
+		{
+		Map<Status,List<String>> nodesByStatus=new LinkedHashMap<Status,List<String>>();
+		Map<Status,List<String>> edgesByStatus=new LinkedHashMap<Status,List<String>>();
+		for(Status st:Status.values())
+			{
+			if(st==Status.UNCHANGED) continue;
+			nodesByStatus.put(st, new ArrayList<String>());
+			edgesByStatus.put(st, new ArrayList<String>());
+			}
+		for(Node n:this.nodes.values())
+			{
+			if(n.status==Status.UNCHANGED) continue;
+			nodesByStatus.get(n.status).add(Java2Graph.jsonQuote(n.name));
+			}
+		for(Edge e:this.edges.values())
+			{
+			if(e.status==Status.UNCHANGED) continue;
+			StringBuilder sb=new StringBuilder();
+			sb.append("{\"from\":").append(Java2Graph.jsonQuote(e.from.name));
+			sb.append(",\"to\":").append(Java2Graph.jsonQuote(e.to.name));
+			if(e.oldRelation!=null) sb.append(",\"oldRelation\":\"").append(e.oldRelation.name()).append("\"");
+			if(e.newRelation!=null) sb.append(",\"newRelation\":\"").append(e.newRelation.name()).append("\"");
+			if(e.oldLabel!=null) sb.append(",\"oldLabel\":").append(Java2Graph.jsonQuote(e.oldLabel));
+			if(e.newLabel!=null) sb.append(",\"newLabel\":").append(Java2Graph.jsonQuote(e.newLabel));
+			sb.append("}");
+			edgesByStatus.get(e.status).add(sb.toString());
+			}
+		out.print("{\"nodes\":");
+		printGroups(out,nodesByStatus);
+		out.print(",\"links\":");
+		printGroups(out,edgesByStatus);
+		out.println("}");
+		out.flush();
+		}
+	
+	private static void printGroups(PrintStream out,Map<Status,List<String>> groups)
+		{
+		out.print("{");
+		boolean first=true;
+		for(Status st:groups.keySet())
+			{
+			if(!first) out.print(",");
+			first=false;
+			List<String> L=groups.get(st);
+			out.print("\""+st.name().toLowerCase()+"\":{\"count\":"+L.size()+",\"items\":[");
+			for(int i=0;i< L.size();++i)
+				{
+				if(i>0) out.print(",");
+				out.print(L.get(i));
+				}
+			out.print("]}");
+			}
+		out.print("}");
+		}
+	
+	/** one line per status, for the logs */
+	String getCounts()
+		{
+		Map<Status,int[]> counts=new TreeMap<Status,int[]>();
+		for(Status st:Status.values()) counts.put(st, new int[2]);
+		for(Node n:this.nodes.values()) counts.get(n.status)[0]++;
+		for(Edge e:this.edges.values()) counts.get(e.status)[1]++;
+		StringBuilder sb=new StringBuilder();
+		for(Status st:new TreeSet<Status>(counts.keySet()))
+			{
+			if(st==Status.UNCHANGED) continue;
+			if(sb.length()>0) sb.append(", ");
+			sb.append(st.name().toLowerCase()+": "+counts.get(st)[0]+" classes "+counts.get(st)[1]+" links");
+			}
+		return sb.toString();
+		}
+	}
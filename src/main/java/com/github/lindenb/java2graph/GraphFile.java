@@ -0,0 +1,545 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary graph file, memory-mapped for random access.
+ * <pre>
+ * header  : int magic 'J2GB', int version, int number of sections, int 0
+ * index   : for each section: int tag, long offset, long length
+ * STRINGS : int n, int offsets[n+1], the UTF-8 bytes of the strings
+ * NODES   : int n, for each node: int name, int jar (string handles), int flags, int distance (-1: none)
+ * NAMES   : int n, the nodes sorted by name
+ * METHODS : int n, the string handles of the method names
+ * META    : int truncated (string handle or -1)
+ * EDGES+r : for each Relation r, CSR: int n, int start[nodes+1], int target[n], int methodStart[n+1]
+ * RELATIONS+r : optional, the relations merged into each edge of EDGES+r: int relations[n], one bit per Relation
+ * </pre>
+ * All the integers are big-endian. The sections with an unknown tag are ignored.
+ * @author lindenb
+ *
+ */
+class GraphFile
+	{
+	static final int MAGIC=0x4A324742;
+	static final int VERSION=1;
+	static final int FLAG_INTERFACE=1;
+	static final int FLAG_USER_TARGET=2;
+	
+	private static final int STRINGS=1;
+	private static final int NODES=2;
+	private static final int NAMES=3;
+	private static final int METHODS=4;
+	private static final int META=5;
+	private static final int EDGES=16;
+	private static final int RELATIONS=32;
+	/** bytes of a node in the NODES section */
+	private static final int NODE_SIZE=16;
+	
+	private final File file;
+	private final MappedByteBuffer buffer;
+	private int countStrings;
+	/** offset of the string offsets */
+	private int stringOffsets;
+	/** offset of the bytes of the strings */
+	private int stringBytes;
+	private int countNodes;
+	private int nodes;
+	private int names;
+	private int methods;
+	private int truncated=-1;
+	/** for each relation: offset of the CSR, -1 if absent */
+	private final int edges[]=new int[Relation.values().length];
+	private final int countEdges[]=new int[Relation.values().length];
+	/** for each relation: offset of the relations merged into the edges, -1 if absent */
+	private final int relations[]=new int[Relation.values().length];
+	/** for each relation, the incoming edges: CSR on the target of the edges, built on demand */
+	private int incomingStart[][]=null;
+	/** for each relation, the index of the incoming edges in the outgoing CSR */
+	private int incomingEdges[][]=null;
+	/** for each relation, the source of the incoming edges */
+	private int incomingSources[][]=null;
+	
+	GraphFile(File file) throws IOException
+		{
+		this.file=file;
+		RandomAccessFile raf=new RandomAccessFile(file, "r");
+		try
+			{
+			FileChannel channel=raf.getChannel();
+			if(channel.size()>Integer.MAX_VALUE) throw new IOException("Cannot map a file larger than 2Gb: "+file);
+			this.buffer=channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+			}
+		finally
+			{
+			raf.close();
+			}
+		readIndex();
+		}
+	
+	private IOException error(String msg)
+		{
+		return new IOException(msg+" in "+this.file);
+		}
+	
+	private void readIndex() throws IOException
+		{
+		final ByteBuffer bb=this.buffer;
+		if(bb.limit()< 16 || bb.getInt(0)!=MAGIC) throw error("Not a java2graph binary file");
+		int version=bb.getInt(4);
+		if(version!=VERSION) throw error("Unsupported version "+version+" (expected "+VERSION+")");
+		int countSections=bb.getInt(8);
+		Arrays.fill(this.edges, -1);
+		Arrays.fill(this.relations, -1);
+		int strings=-1;
+		this.nodes=-1;
+		this.names=-1;
+		this.methods=-1;
+		for(int i=0;i< countSections;++i)
+			{
+			int pos=16+i*20;
+			if(pos+20> bb.limit()) throw error("Truncated index");
+			int tag=bb.getInt(pos);
+			long offset=bb.getLong(pos+4);
+			long length=bb.getLong(pos+12);
+			if(offset< 0 || length< 0 || offset+length> bb.limit()) throw error("Bad section "+tag);
+			switch(tag)
+				{
+				case STRINGS: strings=(int)offset; break;
+				case NODES: this.nodes=(int)offset; break;
+				case NAMES: this.names=(int)offset; break;
+				case METHODS: this.methods=(int)offset; break;
+				case META: this.truncated=bb.getInt((int)offset); break;
+				default:
+					{
+					int r=tag-EDGES;
+					if(r>=0 && r< this.edges.length) this.edges[r]=(int)offset;
+					r=tag-RELATIONS;
+					if(r>=0 && r< this.relations.length) this.relations[r]=(int)offset;
+					/* unknown section: ignored */
+					break;
+					}
+				}
+			}
+		if(strings==-1 || this.nodes==-1 || this.names==-1 || this.methods==-1) throw error("Missing section");
+		this.countStrings=bb.getInt(strings);
+		this.stringOffsets=strings+4;
+		this.stringBytes=this.stringOffsets+4*(this.countStrings+1);
+		this.countNodes=bb.getInt(this.nodes);
+		this.nodes+=4;
+		this.names+=4;
+		this.methods+=4;
+		for(int r=0;r< this.edges.length;++r)
+			{
+			if(this.edges[r]==-1) continue;
+			this.countEdges[r]=bb.getInt(this.edges[r]);
+			this.edges[r]+=4;
+			}
+		}
+	
+	int getStringCount()
+		{
+		return this.countStrings;
+		}
+	
+	String getString(int handle)
+		{
+		int start=this.buffer.getInt(this.stringOffsets+4*handle);
+		int end=this.buffer.getInt(this.stringOffsets+4*(handle+1));
+		byte array[]=new byte[end-start];
+		ByteBuffer slice=this.buffer.duplicate();
+		slice.position(this.stringBytes+start);
+		slice.get(array);
+		return new String(array,StandardCharsets.UTF_8);
+		}
+	
+	int getNodeCount()
+		{
+		return this.countNodes;
+		}
+	
+	int getNameHandle(int node)
+		{
+		return this.buffer.getInt(this.nodes+node*NODE_SIZE);
+		}
+	
+	String getName(int node)
+		{
+		return getString(getNameHandle(node));
+		}
+	
+	int getJarHandle(int node)
+		{
+		return this.buffer.getInt(this.nodes+node*NODE_SIZE+4);
+		}
+	
+	boolean isInterface(int node)
+		{
+		return (this.buffer.getInt(this.nodes+node*NODE_SIZE+8) & FLAG_INTERFACE)!=0;
+		}
+	
+	boolean isUserTarget(int node)
+		{
+		return (this.buffer.getInt(this.nodes+node*NODE_SIZE+8) & FLAG_USER_TARGET)!=0;
+		}
+	
+	/** distance to the classes of the user, -1 if unknown */
+	int getDistance(int node)
+		{
+		return this.buffer.getInt(this.nodes+node*NODE_SIZE+12);
+		}
+	
+	/** finds a node by its name (binary search), returns -1 if not found */
+	int findNode(String name)
+		{
+		int lo=0;
+		int hi=this.countNodes;
+		while(lo< hi)
+			{
+			int mid=(lo+hi)>>>1;
+			int node=this.buffer.getInt(this.names+4*mid);
+			int c=getName(node).compareTo(name);
+			if(c==0) return node;
+			if(c< 0) lo=mid+1; else hi=mid;
+			}
+		return -1;
+		}
+	
+	/** why the graph was truncated, or null */
+	String getTruncated()
+		{
+		return this.truncated==-1?null:getString(this.truncated);
+		}
+	
+	int getEdgeCount(Relation r)
+		{
+		return this.edges[r.ordinal()]==-1?0:this.countEdges[r.ordinal()];
+		}
+	
+	/** index of the first edge of this relation starting from this node */
+	int getEdgeStart(Relation r,int node)
+		{
+		if(this.edges[r.ordinal()]==-1) return 0;
+		return this.buffer.getInt(this.edges[r.ordinal()]+4*node);
+		}
+	
+	/** index after the last edge of this relation starting from this node */
+	int getEdgeEnd(Relation r,int node)
+		{
+		if(this.edges[r.ordinal()]==-1) return 0;
+		return this.buffer.getInt(this.edges[r.ordinal()]+4*(node+1));
+		}
+	
+	int getEdgeTarget(Relation r,int edge)
+		{
+		return this.buffer.getInt(this.edges[r.ordinal()]+4*(this.countNodes+1)+4*edge);
+		}
+	
+	/** the file only stores the outgoing edges: builds the CSR of the incoming edges */
+	private synchronized void buildIncoming()
+		{
+		if(this.incomingStart!=null) return;
+		int nr=Relation.values().length;
+		int starts[][]=new int[nr][];
+		int edges[][]=new int[nr][];
+		int sources[][]=new int[nr][];
+		for(Relation r:Relation.values())
+			{
+			int n=getEdgeCount(r);
+			int start[]=new int[this.countNodes+1];
+			for(int e=0;e< n;++e) start[getEdgeTarget(r, e)+1]++;
+			for(int i=0;i< this.countNodes;++i) start[i+1]+=start[i];
+			int fill[]=Arrays.copyOf(start, this.countNodes);
+			int edge[]=new int[n];
+			int source[]=new int[n];
+			for(int node=0;node< this.countNodes;++node)
+				{
+				for(int e=getEdgeStart(r, node);e< getEdgeEnd(r, node);++e)
+					{
+					int pos=fill[getEdgeTarget(r, e)]++;
+					edge[pos]=e;
+					source[pos]=node;
+					}
+				}
+			starts[r.ordinal()]=start;
+			edges[r.ordinal()]=edge;
+			sources[r.ordinal()]=source;
+			}
+		this.incomingEdges=edges;
+		this.incomingSources=sources;
+		this.incomingStart=starts;
+		}
+	
+	/** index of the first incoming edge of this relation ending to this node */
+	int getIncomingStart(Relation r,int node)
+		{
+		buildIncoming();
+		return this.incomingStart[r.ordinal()][node];
+		}
+	
+	/** index after the last incoming edge of this relation ending to this node */
+	int getIncomingEnd(Relation r,int node)
+		{
+		buildIncoming();
+		return this.incomingStart[r.ordinal()][node+1];
+		}
+	
+	/** the i-th incoming edge of this relation, as an index of the outgoing edges */
+	int getIncomingEdge(Relation r,int i)
+		{
+		buildIncoming();
+		return this.incomingEdges[r.ordinal()][i];
+		}
+	
+	/** the source node of the i-th incoming edge of this relation */
+	int getIncomingSource(Relation r,int i)
+		{
+		buildIncoming();
+		return this.incomingSources[r.ordinal()][i];
+		}
+	
+	/** the relations of an edge and of the links merged into it, one bit per Relation */
+	int getEdgeRelations(Relation r,int edge)
+		{
+		if(this.relations[r.ordinal()]==-1) return 1<<r.ordinal();
+		return this.buffer.getInt(this.relations[r.ordinal()]+4*edge);
+		}
+	
+	private int methodStart(Relation r,int edge)
+		{
+		return this.buffer.getInt(this.edges[r.ordinal()]+4*(this.countNodes+1)+4*this.countEdges[r.ordinal()]+4*edge);
+		}
+	
+	int getMethodCount(Relation r,int edge)
+		{
+		return methodStart(r,edge+1)-methodStart(r,edge);
+		}
+	
+	/** string handle of the i-th method of an edge */
+	int getMethodHandle(Relation r,int edge,int i)
+		{
+		return this.buffer.getInt(this.methods+4*(methodStart(r,edge)+i));
+		}
+	
+	/** the sections are built in memory, then written after the index */
+	private static class Section
+		{
+		final int tag;
+		final ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+		final DataOutputStream out=new DataOutputStream(this.bytes);
+		Section(int tag)
+			{
+			this.tag=tag;
+			}
+		}
+	
+	/** writes the classes and the links of a graph. The links must join the given classes */
+	static void write(OutputStream os,SymbolTable symbols,List<ClassWrapper> classes,Collection<Link> links,String truncated) throws IOException
+		{
+		/* the strings of the file: the symbols used by the graph, numbered in order of appearance */
+		int sym2handle[]=new int[symbols.size()];
+		Arrays.fill(sym2handle, -1);
+		final List<String> strings=new ArrayList<String>();
+		int jarHandles[]=new int[classes.size()];
+		Map<String,Integer> jar2handle=new HashMap<String,Integer>();
+		Map<ClassWrapper,Integer> class2node=new HashMap<ClassWrapper,Integer>(classes.size()*2);
+		for(int i=0;i< classes.size();++i)
+			{
+			ClassWrapper c=classes.get(i);
+			class2node.put(c, i);
+			handle(symbols,c.getNameSymbol(),sym2handle,strings);
+			Integer jar=jar2handle.get(c.getJarName());
+			if(jar==null)
+				{
+				jar=strings.size();
+				strings.add(c.getJarName());
+				jar2handle.put(c.getJarName(), jar);
+				}
+			jarHandles[i]=jar;
+			}
+		
+		Section nodes=new Section(NODES);
+		nodes.out.writeInt(classes.size());
+		for(int i=0;i< classes.size();++i)
+			{
+			ClassWrapper c=classes.get(i);
+			nodes.out.writeInt(sym2handle[c.getNameSymbol()]);
+			nodes.out.writeInt(jarHandles[i]);
+			nodes.out.writeInt((c.isInterface()?FLAG_INTERFACE:0)|(c.userTarget?FLAG_USER_TARGET:0));
+			nodes.out.writeInt(c.distancdeToUserTarget==Integer.MAX_VALUE?-1:c.distancdeToUserTarget);
+			}
+		
+		Section names=new Section(NAMES);
+		Integer sorted[]=new Integer[classes.size()];
+		for(int i=0;i< sorted.length;++i) sorted[i]=i;
+		final List<ClassWrapper> finalClasses=classes;
+		Arrays.sort(sorted,new Comparator<Integer>()
+			{
+			@Override
+			public int compare(Integer o1, Integer o2)
+				{
+				return finalClasses.get(o1).toString().compareTo(finalClasses.get(o2).toString());
+				}
+			});
+		names.out.writeInt(sorted.length);
+		for(Integer node:sorted) names.out.writeInt(node);
+		
+		/* CSR of each relation: the links are grouped by source, in the order of the collection */
+		Section methods=new Section(METHODS);
+		int countMethods=0;
+		ByteArrayOutputStream methodBytes=new ByteArrayOutputStream();
+		DataOutputStream methodOut=new DataOutputStream(methodBytes);
+		List<Section> edgeSections=new ArrayList<Section>();
+		for(Relation r:Relation.values())
+			{
+			int start[]=new int[classes.size()+1];
+			int n=0;
+			for(Link L:links)
+				{
+				if(L.getRelation()!=r) continue;
+				start[class2node.get(L.getFrom())+1]++;
+				n++;
+				}
+			if(n==0) continue;
+			for(int i=0;i< classes.size();++i) start[i+1]+=start[i];
+			int fill[]=Arrays.copyOf(start, classes.size());
+			Link sortedLinks[]=new Link[n];
+			for(Link L:links)
+				{
+				if(L.getRelation()!=r) continue;
+				sortedLinks[fill[class2node.get(L.getFrom())]++]=L;
+				}
+			Section csr=new Section(EDGES+r.ordinal());
+			csr.out.writeInt(n);
+			for(int s:start) csr.out.writeInt(s);
+			for(Link L:sortedLinks) csr.out.writeInt(class2node.get(L.getTo()));
+			for(Link L:sortedLinks)
+				{
+				csr.out.writeInt(countMethods);
+				for(int i=0;i< L.getMethodCount();++i)
+					{
+					methodOut.writeInt(handle(symbols,L.getMethodSymbol(i),sym2handle,strings));
+					countMethods++;
+					}
+				}
+			csr.out.writeInt(countMethods);
+			edgeSections.add(csr);
+			/* written only if a link has more than one relation */
+			boolean merged=false;
+			for(Link L:sortedLinks) merged|=(L.getRelations()!=1<<r.ordinal());
+			if(merged)
+				{
+				Section rels=new Section(RELATIONS+r.ordinal());
+				for(Link L:sortedLinks) rels.out.writeInt(L.getRelations());
+				edgeSections.add(rels);
+				}
+			}
+		methodOut.flush();
+		methods.out.writeInt(countMethods);
+		methodBytes.writeTo(methods.out);
+		
+		Section meta=new Section(META);
+		if(truncated==null)
+			{
+			meta.out.writeInt(-1);
+			}
+		else
+			{
+			meta.out.writeInt(strings.size());
+			strings.add(truncated);
+			}
+		
+		Section stringSection=new Section(STRINGS);
+		stringSection.out.writeInt(strings.size());
+		int offset=0;
+		byte encoded[][]=new byte[strings.size()][];
+		for(int i=0;i< encoded.length;++i)
+			{
+			encoded[i]=strings.get(i).getBytes(StandardCharsets.UTF_8);
+			stringSection.out.writeInt(offset);
+			offset+=encoded[i].length;
+			}
+		stringSection.out.writeInt(offset);
+		for(byte[] b:encoded) stringSection.out.write(b);
+		/* keep the next sections aligned on 4 bytes */
+		while(stringSection.bytes.size()%4!=0) stringSection.out.write(0);
+		
+		List<Section> sections=new ArrayList<Section>();
+		sections.add(stringSection);
+		sections.add(nodes);
+		sections.add(names);
+		sections.add(methods);
+		sections.add(meta);
+		sections.addAll(edgeSections);
+		
+		DataOutputStream out=new DataOutputStream(os);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(sections.size());
+		out.writeInt(0);
+		long sectionOffset=16L+20L*sections.size();
+		for(Section s:sections)
+			{
+			s.out.flush();
+			out.writeInt(s.tag);
+			out.writeLong(sectionOffset);
+			out.writeLong(s.bytes.size());
+			sectionOffset+=s.bytes.size();
+			}
+		for(Section s:sections)
+			{
+			s.bytes.writeTo(out);
+			}
+		out.flush();
+		}
+	
+	/** returns the handle of a symbol in the file, adds the symbol to the strings of the file if needed */
+	private static int handle(SymbolTable symbols,int symbol,int sym2handle[],List<String> strings)
+		{
+		if(sym2handle[symbol]==-1)
+			{
+			sym2handle[symbol]=strings.size();
+			strings.add(symbols.toString(symbol));
+			}
+		return sym2handle[symbol];
+		}
+	}
@@ -0,0 +1,237 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shortest paths and reachable sets over the class graph. The
+ * neighbours of a class are only computed when the search reaches it.
+ * The shortest paths use a bidirectional breadth-first search when the
+ * incoming links of a class can be found, a forward search otherwise.
+ * @author lindenb
+ *
+ */
+class GraphQuery
+	{
+	/** gives the links around a class */
+	static interface Expander
+		{
+		/** the links starting from this class */
+		List<Link> outgoing(ClassWrapper cw);
+		/** the links ending to this class. Only called by a bidirectional search */
+		List<Link> incoming(ClassWrapper cw);
+		}
+	
+	private final Expander expander;
+	/** can we search backward from the target ? */
+	private final boolean bidirectional;
+	/** distance to the source of the classes of the last result */
+	private final Map<ClassWrapper,Integer> distances=new LinkedHashMap<ClassWrapper,Integer>();
+	/** number of classes expanded by the last query */
+	private int countExpanded=0;
+	
+	GraphQuery(Expander expander,boolean bidirectional)
+		{
+		this.expander=expander;
+		this.bidirectional=bidirectional;
+		}
+	
+	/** distance to the source of the classes of the last result */
+	Map<ClassWrapper,Integer> getDistances()
+		{
+		return this.distances;
+		}
+	
+	/** number of classes expanded by the last query */
+	int getCountExpanded()
+		{
+		return this.countExpanded;
+		}
+	
+	/** expands a whole layer of the search, returns the next layer */
+	private List<ClassWrapper> expandLayer(
+			List<ClassWrapper> layer,
+			Map<ClassWrapper,Integer> dist,
+			Map<ClassWrapper,List<Link>> via,
+			boolean forward
+			)
+		{
+		List<ClassWrapper> next=new ArrayList<ClassWrapper>();
+		for(ClassWrapper cw:layer)
+			{
+			int d=dist.get(cw)+1;
+			++this.countExpanded;
+			for(Link L:(forward?this.expander.outgoing(cw):this.expander.incoming(cw)))
+				{
+				ClassWrapper other=(forward?L.getTo():L.getFrom());
+				Integer prev=dist.get(other);
+				if(prev==null)
+					{
+					dist.put(other, d);
+					List<Link> links=new ArrayList<Link>();
+					links.add(L);
+					via.put(other, links);
+					next.add(other);
+					}
+				else if(prev==d)
+					{
+					via.get(other).add(L);
+					}
+				}
+			}
+		return next;
+		}
+	
+	/**
+	 * returns the links of all the shortest paths from the source to the target,
+	 * following the direction of the links. maxLength<=0: no limit.
+	 * Returns null if there is no path.
+	 */
+	Set<Link> shortestPaths(ClassWrapper source,ClassWrapper target,int maxLength)
+		{
+		this.distances.clear();
+		this.countExpanded=0;
+		Map<ClassWrapper,Integer> distF=new HashMap<ClassWrapper,Integer>();
+		Map<ClassWrapper,Integer> distB=new HashMap<ClassWrapper,Integer>();
+		/* links to a class from the previous forward layer */
+		Map<ClassWrapper,List<Link>> parents=new HashMap<ClassWrapper,List<Link>>();
+		/* links from a class to the previous backward layer */
+		Map<ClassWrapper,List<Link>> children=new HashMap<ClassWrapper,List<Link>>();
+		List<ClassWrapper> layerF=new ArrayList<ClassWrapper>();
+		List<ClassWrapper> layerB=new ArrayList<ClassWrapper>();
+		distF.put(source, 0);
+		distB.put(target, 0);
+		layerF.add(source);
+		layerB.add(target);
+		int radiusF=0;
+		int radiusB=0;
+		
+		List<ClassWrapper> meeting=new ArrayList<ClassWrapper>();
+		if(source.equals(target)) meeting.add(source);
+		while(meeting.isEmpty())
+			{
+			if(layerF.isEmpty()) return null;
+			if(this.bidirectional && layerB.isEmpty()) return null;
+			if(maxLength>0 && radiusF+radiusB>=maxLength) return null;
+			List<ClassWrapper> layer;
+			Map<ClassWrapper,Integer> otherDist;
+			if(!this.bidirectional || layerF.size()<=layerB.size())
+				{
+				layerF=expandLayer(layerF, distF, parents, true);
+				++radiusF;
+				layer=layerF;
+				otherDist=distB;
+				}
+			else
+				{
+				layerB=expandLayer(layerB, distB, children, false);
+				++radiusB;
+				layer=layerB;
+				otherDist=distF;
+				}
+			/* only the new layer can meet the other side */
+			int best=Integer.MAX_VALUE;
+			for(ClassWrapper cw:layer)
+				{
+				Integer d=otherDist.get(cw);
+				if(d==null) continue;
+				if(d<best)
+					{
+					best=d;
+					meeting.clear();
+					}
+				if(d==best) meeting.add(cw);
+				}
+			}
+		int length=distF.get(meeting.get(0))+distB.get(meeting.get(0));
+		
+		/* collect the links of the shortest paths, on both sides of the meeting classes */
+		Set<Link> result=new LinkedHashSet<Link>();
+		List<ClassWrapper> stack=new ArrayList<ClassWrapper>(meeting);
+		Set<ClassWrapper> seen=new LinkedHashSet<ClassWrapper>(meeting);
+		while(!stack.isEmpty())
+			{
+			ClassWrapper cw=stack.remove(stack.size()-1);
+			this.distances.put(cw, distF.get(cw));
+			List<Link> links=parents.get(cw);
+			if(links==null) continue;
+			for(Link L:links)
+				{
+				result.add(L);
+				if(seen.add(L.getFrom())) stack.add(L.getFrom());
+				}
+			}
+		stack.addAll(meeting);
+		while(!stack.isEmpty())
+			{
+			ClassWrapper cw=stack.remove(stack.size()-1);
+			this.distances.put(cw, length-distB.get(cw));
+			List<Link> links=children.get(cw);
+			if(links==null) continue;
+			for(Link L:links)
+				{
+				result.add(L);
+				if(seen.add(L.getTo())) stack.add(L.getTo());
+				}
+			}
+		return result;
+		}
+	
+	/**
+	 * returns the links followed from the source, up to maxDepth (<=0: no limit).
+	 */
+	Set<Link> reachable(ClassWrapper source,int maxDepth)
+		{
+		this.distances.clear();
+		this.countExpanded=0;
+		Set<Link> result=new LinkedHashSet<Link>();
+		List<ClassWrapper> layer=new ArrayList<ClassWrapper>();
+		this.distances.put(source, 0);
+		layer.add(source);
+		for(int depth=1;!layer.isEmpty() && (maxDepth<=0 || depth<=maxDepth);++depth)
+			{
+			List<ClassWrapper> next=new ArrayList<ClassWrapper>();
+			for(ClassWrapper cw:layer)
+				{
+				++this.countExpanded;
+				for(Link L:this.expander.outgoing(cw))
+					{
+					result.add(L);
+					if(this.distances.containsKey(L.getTo())) continue;
+					this.distances.put(L.getTo(), depth);
+					next.add(L.getTo());
+					}
+				}
+			layer=next;
+			}
+		return result;
+		}
+	}
@@ -0,0 +1,84 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores the links in memory
+ * @author lindenb
+ *
+ */
+class InMemoryLinkStore
+	implements LinkStore
+	{
+	private final Map<Link,Link> links=new LinkedHashMap<Link,Link>();
+	
+	@Override
+	public boolean add(Link L)
+		{
+		Link prev=this.links.get(L);
+		if(prev==null)
+			{
+			this.links.put(L, L);
+			return true;
+			}
+		prev.merge(L);
+		return false;
+		}
+	
+	@Override
+	public void removeRelations(Collection<Link> col,Set<Relation> relations)
+		{
+		for(Link L:col)
+			{
+			Link stored=this.links.get(L);
+			if(stored==null) continue;
+			stored.removeRelations(relations);
+			if(stored.getRelations()==0) this.links.remove(stored);
+			}
+		}
+	
+	@Override
+	public long size()
+		{
+		return this.links.size();
+		}
+	
+	@Override
+	public void clear()
+		{
+		this.links.clear();
+		}
+	
+	@Override
+	public Iterator<Link> iterator()
+		{
+		return this.links.keySet().iterator();
+		}
+	}
@@ -23,25 +23,45 @@ SOFTWARE.
  */
 package com.github.lindenb.java2graph;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Enumeration;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.jar.JarInputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -55,147 +75,13 @@ interface Filter<T>
 	boolean accept(T data);
 	}
 
-enum Relation
+/** how the classes are collapsed by the aggregated output */
+enum AggregateLevel
 	{
-	SUPER,
-	IMPLEMENTS,
-	DECLARES,
-	RETURNS,
-	ARGUMENT
+	PACKAGE,
+	JAR
 	};
 
-/** Wrapper around a java class */
-class ClassWrapper
-	{
-	/** unique id generator */
-	private static int ID_GENERATOR=0;
-
-	/** unique id */
-	private int id= (++ID_GENERATOR);
-	/** the class observed */
-	private Class<?> clazz;
-	/** did we already processed this class ? */
-	private boolean visited=false;
-	/** was selected by the user */
-	 boolean userTarget=false;
-	/** distance to user Target */
-	 int distancdeToUserTarget=Integer.MAX_VALUE;
-	
-	ClassWrapper(Class<?> clazz)
-		{
-		this.clazz=clazz;
-		}
-	
-	public Class<?> getWrappedClass()
-		{
-		return this.clazz;
-		}
-	
-	public int getId()
-		{
-		return id;
-		}
-	
-	public boolean isVisited() {
-		return visited;
-		}
-	
-	public void setVisited(boolean visited) {
-		this.visited = visited;
-		}
-	
-	@Override
-	public int hashCode()
-		{
-		return getWrappedClass().hashCode();
-		}
-	
-	@Override
-	public boolean equals(Object obj)
-		{
-		if(obj==this) return true;
-		if(obj==null || getClass()!=obj.getClass()) return false;
-		return ClassWrapper.class.cast(obj).getWrappedClass()==getWrappedClass();
-		}
-	
-	public boolean isInterface()
-		{
-		return this.clazz.isInterface();
-		}
-	
-	@Override
-	public String toString()
-		{
-		return this.clazz.getName();
-		}
-	} 
-
-
-
-/**
- * Defines a Link between to classes
- * @author lindenb
- *
- */
-class Link
-	{
-	private ClassWrapper from;
-	private ClassWrapper to;
-	private Relation label;
-	private Set<String> methodsName=null;
-	Link(ClassWrapper from,ClassWrapper to,Relation label)
-		{
-		this.from=from;
-		this.to=to;
-		this.label=label;
-		}
-	
-	public ClassWrapper getFrom()
-		{
-		return from;
-		}
-	
-	public ClassWrapper getTo()
-		{
-		return to;
-		}
-	
-	Set<String> getMethods()
-		{
-		if(methodsName==null) methodsName=new TreeSet<String>();
-		return methodsName;
-		}
-	
-	public Relation getRelation() {
-		return label;
-		}
-	
-	@Override
-	public boolean equals(Object obj) {
-		if(obj==this) return true;
-		if(obj==null || getClass()!=obj.getClass()) return false;
-		return 	Link.class.cast(obj).from.equals(this.from) &&
-				Link.class.cast(obj).to.equals(this.to)
-				;
-		}
-	
-	@Override
-	public int hashCode() {
-		return from.hashCode()*31+to.hashCode();
-		}
-	
-	@Override
-	public String toString() {
-		return getFrom().toString() +
-				" -["+getRelation()+"]-> " +
-				getTo().toString();
-		}
-	
-	
-	
-	}
-
-
 /**
  * Java2Graph
  * Reference: http://plindenbaum.blogspot.fr/2008/10/javadoc-is-not-enough-java2dia.html
@@ -213,9 +99,196 @@ public class Java2Graph
 	
 	private abstract class AbstractGraphPrinter
 		{
+		/** does this printer want the nodes and the links as soon as they are discovered ? */
+		public boolean isStreaming()
+			{
+			return false;
+			}
+		/** called before the traversal starts */
+		public void begin(PrintStream out) throws Exception
+			{
+			}
+		/** called by a streaming printer when a node is discovered */
+		public void node(ClassWrapper c) throws Exception
+			{
+			}
+		/** called by a streaming printer when a link is discovered */
+		public void link(Link L) throws Exception
+			{
+			}
 		public abstract void print(PrintStream out) throws Exception;
 		}
 	
+	/** prints one JSON record per line, as the traversal discovers them */
+	private class NdjsonPrinter
+		extends AbstractGraphPrinter
+		{
+		/** end-of-stream marker */
+		private final String EOF=new String("<EOF>");
+		/** bounded buffer between the traversal and the writer thread */
+		private final BlockingQueue<String> queue=new ArrayBlockingQueue<String>(10000);
+		private Thread writer=null;
+		private volatile Throwable writerError=null;
+		private long startMillis=0L;
+		private int countNodes=0;
+		private int countLinks=0;
+		
+		@Override
+		public boolean isStreaming()
+			{
+			return true;
+			}
+		
+		@Override
+		public void begin(final PrintStream out) throws Exception
+			{
+			this.startMillis=System.currentTimeMillis();
+			this.countNodes=0;
+			this.countLinks=0;
+			this.writerError=null;
+			this.queue.clear();
+			this.writer=new Thread("ndjson-writer")
+				{
+				@Override
+				public void run()
+					{
+					try
+						{
+						List<String> batch=new ArrayList<String>();
+						boolean eof=false;
+						while(!eof)
+							{
+							batch.add(queue.take());
+							queue.drainTo(batch);
+							for(String line:batch)
+								{
+								if(line==EOF) { eof=true; break;}
+								out.println(line);
+								}
+							batch.clear();
+							/* a PrintStream never throws: a broken pipe or a full disk is only reported by checkError(), which flushes */
+							if(out.checkError()) throw new IOException("cannot write the ndjson stream");
+							}
+						}
+					catch(Throwable err)
+						{
+						writerError=err;
+						}
+					}
+				};
+			this.writer.setDaemon(true);
+			this.writer.start();
+			}
+		
+		/** puts a record in the queue, blocks if the consumer is too slow. Throws if the consumer failed */
+		private void emit(String line) throws Exception
+			{
+			while(!this.queue.offer(line, 100L, TimeUnit.MILLISECONDS))
+				{
+				if(this.writerError!=null) break;
+				}
+			if(this.writerError!=null) throw new IOException(this.writerError);
+			}
+		
+		@Override
+		public void node(ClassWrapper c) throws Exception
+			{
+			++countNodes;
+			emit("{\"type\":\"node\",\"id\":"+c.getId()+
+				",\"name\":"+jsonQuote(c.getNameSymbol())+
+				",\"interface\":"+c.isInterface()+
+				",\"target\":"+c.userTarget+
+				",\"distance\":"+c.distancdeToUserTarget+
+				"}");
+			}
+		
+		@Override
+		public void link(Link L) throws Exception
+			{
+			++countLinks;
+			StringBuilder sb=new StringBuilder();
+			sb.append("{\"type\":\"edge\",\"from\":").append(L.getFrom().getId());
+			sb.append(",\"to\":").append(L.getTo().getId());
+			sb.append(",\"relation\":\"").append(L.getRelation().name()).append("\"");
+			if(L.getRelation()==Relation.RETURNS || L.getRelation()==Relation.ARGUMENT )
+				{
+				sb.append(",\"methods\":[");
+				boolean first=true;
+				for(int i=0;i< L.getMethodCount();++i)
+					{
+					if(!first) sb.append(",");
+					first=false;
+					/* a JVM method name may contain '"' or '\' */
+					appendJson(symbols.chars(L.getMethodSymbol(i)), sb);
+					}
+				sb.append("]");
+				}
+			sb.append("}");
+			emit(sb.toString());
+			}
+		
+		@Override
+		public void print(PrintStream out) throws Exception
+			{
+			LOG.info("closing ndjson stream");
+			emit("{\"type\":\"summary\",\"nodes\":"+this.countNodes+
+				",\"edges\":"+this.countLinks+
+				",\"classes\":"+Java2Graph.this.classes.size()+
+				",\"truncated\":"+(Java2Graph.this.truncated==null?"null":jsonQuote(Java2Graph.this.truncated))+
+				",\"millis\":"+(System.currentTimeMillis()-this.startMillis)+
+				"}");
+			emit(EOF);
+			this.writer.join();
+			if(this.writerError!=null) throw new IOException(this.writerError);
+			if(out.checkError()) throw new IOException("cannot write the ndjson stream");
+			}
+		}
+	
+	/** quotes a class name for JSON */
+	private String jsonQuote(int symbol)
+		{
+		StringBuilder sb=new StringBuilder(this.symbols.length(symbol)+2);
+		appendJson(this.symbols.chars(symbol), sb);
+		return sb.toString();
+		}
+	
+	/** quotes a string for JSON */
+	static String jsonQuote(String s)
+		{
+		StringBuilder sb=new StringBuilder(s.length()+2);
+		appendJson(s, sb);
+		return sb.toString();
+		}
+	
+	/** appends a quoted string for JSON */
+	static void appendJson(CharSequence s,StringBuilder sb)
+		{
+		sb.append('"');
+		for(int i=0;i< s.length();++i)
+			{
+			char c=s.charAt(i);
+			switch(c)
+				{
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if(c< 0x20)
+						{
+						sb.append(String.format("\\u%04x", (int)c));
+						}
+					else
+						{
+						sb.append(c);
+						}
+					break;
+				}
+			}
+		sb.append('"');
+		}
+	
 	private class GexfPrinter
 		extends AbstractGraphPrinter
 		{
@@ -261,7 +334,7 @@ public class Java2Graph
 				  w.writeCharacters(Java2Graph.class.getCanonicalName());
 				w.writeEndElement();
 				w.writeStartElement("description");
-				  w.writeCharacters("java2 DOT Graph");
+				  w.writeCharacters("java2 DOT Graph"+(truncated==null?"":" (truncated: "+truncated+")"));
 				w.writeEndElement();
 			w.writeEndElement();
 			
@@ -281,23 +354,18 @@ public class Java2Graph
 			gexfAttDecl("defaultName","string");
 			gexfAttDecl("package","string");
 			gexfAttDecl("classOrInterface","string");
+			if(Java2Graph.this.cycleFinder!=null) gexfAttDecl("cycle","integer");
 			w.writeEndElement();//attributes
 			
 			/* nodes */
 			w.writeStartElement("nodes");
 			for(ClassWrapper c: Java2Graph.this.classes)
 				{
-				if(!c.isVisited()) continue;
-				if(Java2Graph.this.limitDistance>0 && c.distancdeToUserTarget>Java2Graph.this.limitDistance)
-					{
-					continue;
-					}
+				if(!isPrintable(c)) continue;
 				w.writeStartElement("node");
 				w.writeAttribute("id", "N"+c.getId());
-				w.writeAttribute("label", c.getWrappedClass().getSimpleName()==null?
-						c.getWrappedClass().toString():
-							c.getWrappedClass().getSimpleName()
-						);
+				String simpleName=c.getSimpleName();
+				w.writeAttribute("label", simpleName);
 				
 				w.writeEmptyElement("viz:color");
 				if(c.isInterface())
@@ -314,18 +382,14 @@ public class Java2Graph
 					}
 				
 				w.writeStartElement("attvalues");
-				gexfAtt("simpleName",String.valueOf(c.getWrappedClass().getSimpleName()));
-				gexfAtt("canonicalName",String.valueOf(c.getWrappedClass().getCanonicalName()));
-				gexfAtt("defaultName",String.valueOf(c.getWrappedClass().getName()));
+				gexfAtt("simpleName",simpleName);
+				gexfAtt("canonicalName",String.valueOf(c.getCanonicalName()));
+				gexfAtt("defaultName",c.toString());
 
-				Package pack=c.getWrappedClass().getPackage();
-				if(pack==null)
-					{
-					gexfAtt("package","(default)");
-					}
-				else
+				gexfAtt("package",c.getPackageName());
+				if(Java2Graph.this.cycleFinder!=null && Java2Graph.this.cycleFinder.getCycle(c)!=-1)
 					{
-					gexfAtt("package",pack.getName());
+					gexfAtt("cycle",String.valueOf(Java2Graph.this.cycleFinder.getCycle(c)));
 					}
 				w.writeEndElement();//attvalues
 				
@@ -341,23 +405,32 @@ public class Java2Graph
 			w.writeStartElement("edges");
 			for(Link L: Java2Graph.this.links)
 				{
-				if(!L.getFrom().isVisited() ||	 !L.getTo().isVisited() ) continue;
-				if(Java2Graph.this.limitDistance>0 &&
-					(
-					L.getTo().distancdeToUserTarget>Java2Graph.this.limitDistance ||
-					L.getFrom().distancdeToUserTarget>Java2Graph.this.limitDistance
-					))
+				if(!isPrintable(L)) continue;
+				
+				boolean inCycle=(Java2Graph.this.cycleFinder!=null && Java2Graph.this.cycleFinder.isInCycle(L));
+				if(inCycle)
 					{
-					continue;
+					w.writeStartElement("edge");
+					}
+				else
+					{
+					w.writeEmptyElement("edge");
 					}
-				
-				
-				w.writeEmptyElement("edge");
 				w.writeAttribute("id", "E"+(++relid));
 				w.writeAttribute("type", "directed");
 				w.writeAttribute("source","N"+L.getFrom().getId());
 				w.writeAttribute("target","N"+L.getTo().getId());
 				w.writeAttribute("label",L.getRelation().name());
+				if(inCycle)
+					{
+					w.writeEmptyElement("viz:color");
+					w.writeAttribute("r", "255");
+					w.writeAttribute("g", "0");
+					w.writeAttribute("b", "0");
+					w.writeEmptyElement("viz:thickness");
+					w.writeAttribute("value", "3");
+					w.writeEndElement();//edge
+					}
 				}
 			w.writeEndElement();//edges
 
@@ -371,126 +444,704 @@ public class Java2Graph
 			}
 		}
 	
-	private class DotGraphPrinter
+	/** collapses the classes into their package or their jar, as the traversal discovers them */
+	private class AggregatePrinter
 		extends AbstractGraphPrinter
 		{
-		PrintStream out;
+		/** a package or a jar */
+		private class Group
+			{
+			final int id;
+			final String name;
+			int countClasses=0;
+			int countInterfaces=0;
+			/** number of links between two classes of this group */
+			int countInternalLinks=0;
+			Group(int id,String name)
+				{
+				this.id=id;
+				this.name=name;
+				}
+			}
+		private final AggregateLevel level;
+		private final boolean gexf;
+		private final Map<String,Group> groups=new LinkedHashMap<String,Group>();
+		/** number of links per relation between two groups. Key is 'id1 id2' */
+		private final Map<String,int[]> edges=new LinkedHashMap<String,int[]>();
 		
-		public void print(PrintStream out) throws Exception
+		AggregatePrinter(AggregateLevel level,boolean gexf)
 			{
-			LOG.info("printing to dot");
-			this.out=out;
-			
-			out.println("digraph G{");
-			
-			for(ClassWrapper c: Java2Graph.this.classes)
+			this.level=level;
+			this.gexf=gexf;
+			}
+		
+		@Override
+		public boolean isStreaming()
+			{
+			return true;
+			}
+		
+		@Override
+		public void begin(PrintStream out) throws Exception
+			{
+			this.groups.clear();
+			this.edges.clear();
+			}
+		
+		private Group group(ClassWrapper c)
+			{
+			String name=(this.level==AggregateLevel.JAR?c.getJarName():c.getPackageName());
+			Group g=this.groups.get(name);
+			if(g==null)
 				{
-				if(!c.isVisited()) continue;
-				if(Java2Graph.this.limitDistance>0 && c.distancdeToUserTarget>Java2Graph.this.limitDistance)
-					{
-					continue;
-					}
-				this.dot(c);
+				g=new Group(this.groups.size()+1,name);
+				this.groups.put(name, g);
 				}
-			for(Link L: Java2Graph.this.links)
+			return g;
+			}
+		
+		@Override
+		public void node(ClassWrapper c) throws Exception
+			{
+			Group g=group(c);
+			if(c.isInterface())
 				{
-				this.dot(L);
+				g.countInterfaces++;
+				}
+			else
+				{
+				g.countClasses++;
 				}
-			out.println("}");
-			out.flush();
 			}
-		private void dot(Link L)
+		
+		@Override
+		public void link(Link L) throws Exception
 			{
-			if(!L.getFrom().isVisited() ||	 !L.getTo().isVisited() ) return;
-			if(Java2Graph.this.limitDistance>0 &&
-				(
-				L.getTo().distancdeToUserTarget>Java2Graph.this.limitDistance ||
-				L.getFrom().distancdeToUserTarget>Java2Graph.this.limitDistance
-				))
+			Group g1=group(L.getFrom());
+			Group g2=group(L.getTo());
+			if(g1==g2)
 				{
+				g1.countInternalLinks++;
 				return;
 				}
-			
-			out.print("id"+L.getFrom().getId()+"->id"+L.getTo().getId()+"[");
-			switch(L.getRelation())
+			String key=g1.id+" "+g2.id;
+			int counts[]=this.edges.get(key);
+			if(counts==null)
 				{
-				case IMPLEMENTS: out.print("color=red,fontcolor=red,arrowType=onormal,"); break;
-				case DECLARES: out.print("color=green,fontcolor=green,"); break;
-				case SUPER:out.print("color=black,fontcolor=black,arrowType=normal,"); break;
-				case RETURNS:out.print("color=black,fontcolor=orange,arrowType=normal,"); break;
-				case ARGUMENT:out.print("color=black,fontcolor=blue,arrowType=normal,"); break;
-				default:System.err.println("???? dot type not handled "+L.getRelation());break;
+				counts=new int[Relation.values().length];
+				this.edges.put(key, counts);
 				}
-			if(L.getRelation()==Relation.RETURNS || L.getRelation()==Relation.ARGUMENT )
+			counts[L.getRelation().ordinal()]++;
+			}
+		
+		@Override
+		public void print(PrintStream out) throws Exception
+			{
+			LOG.info("printing "+this.groups.size()+" groups");
+			if(this.gexf)
 				{
-				out.print("label=\"");
-				for(String m: L.getMethods())
-					{
-					out.print(m+" ");
-					}
-				out.print("\"");
+				printGexf(out);
 				}
 			else
-				
 				{
-				out.print("label=\""+L.getRelation().name().toLowerCase()+"\"");
+				printDot(out);
 				}
-			out.println("]");
 			}
 		
-		private void dot(ClassWrapper C)
+		private void printDot(PrintStream out)
 			{
-			out.print("id"+C.getId()+"[shape=rectangle,style=filled,");
-			if(C.isInterface())
+			out.println("digraph G{");
+			printDotTruncated(out);
+			for(Group g:this.groups.values())
 				{
-				out.println("fillcolor=khaki,");
+				out.print("id"+g.id+"[shape=rectangle,style=filled,");
+				out.println(g.countClasses==0?"fillcolor=khaki,":"fillcolor=gray77,");
+				out.print("label=\""+g.name+"\\n"+g.countClasses+" classes, "+g.countInterfaces+" interfaces\"");
+				out.println("]");
 				}
-			else
+			for(Map.Entry<String,int[]> e:this.edges.entrySet())
 				{
-				out.println("fillcolor=gray77,");
+				String tokens[]=e.getKey().split("[ ]");
+				for(Relation r:Relation.values())
+					{
+					int n=e.getValue()[r.ordinal()];
+					if(n==0) continue;
+					out.print("id"+tokens[0]+"->id"+tokens[1]+"[");
+					switch(r)
+						{
+						case IMPLEMENTS: out.print("color=red,fontcolor=red,arrowType=onormal,"); break;
+						case DECLARES: out.print("color=green,fontcolor=green,"); break;
+						case SUPER:out.print("color=black,fontcolor=black,arrowType=normal,"); break;
+						case RETURNS:out.print("color=black,fontcolor=orange,arrowType=normal,"); break;
+						case ARGUMENT:out.print("color=black,fontcolor=blue,arrowType=normal,"); break;
+						default:System.err.println("???? dot type not handled "+r);break;
+						}
+					out.print("penwidth="+(1+(int)Math.log10(n))+",");
+					out.print("label=\""+r.name().toLowerCase()+" ("+n+")\"");
+					out.println("]");
+					}
 				}
-			out.print("label=\""+C.getWrappedClass().getName()+"\"");
-			out.println("]");
+			out.println("}");
+			out.flush();
 			}
-		}
-
-	
-	
-	
-	
-		
 		
-
-	
-	/** all the files */
-	private ArrayList<File> files=new ArrayList<File>();
-	/** all the classes that may be observed */
-	private HashSet<ClassWrapper> classes= new HashSet<ClassWrapper>();
-	/** all the links between the classes */
-	private HashSet<Link> links= new HashSet<Link>();
-	/** ignore pattern */
-	private List<Filter<Class<?>>> discardClassFilters= new ArrayList<Filter<Class<?>>>();
-	
-	/** are we using any.any$any classes ? */ 
-	private boolean usingDeclaredClasses=true;
-	/** are we using interfaces ? */
-	private boolean usingInterfaces=true;
-	/** are we looking for classes implementing interfaces */
-	private boolean usingClassesImplementingInterfaces=true;
-	/** use private inner classes */
-	private boolean usePrivateDeclaredClasses=false;
-	/** distance max to class targeted by user -1= no restriction*/
-	private int limitDistance=-1;
-	/** use method signatures */
-	private boolean useMethodReturnType=false;
-	/** use method signatures */
-	private boolean useMethodArguments=false;
-	/** use Annotations */
-	private boolean useAnnotations=false;
-	
-	/** empty private cstor */
-	private Java2Graph()
-		{
+		private void printGexf(PrintStream out) throws XMLStreamException
+			{
+			XMLOutputFactory xmlfactory= XMLOutputFactory.newInstance();
+			XMLStreamWriter w= xmlfactory.createXMLStreamWriter(out,"UTF-8");
+			w.writeStartDocument("UTF-8","1.0");
+			w.writeStartElement("gexf");
+			w.writeAttribute("xmlns", "http://www.gexf.net/1.2draft");
+			w.writeAttribute("version", "1.2");
+			if(truncated!=null)
+				{
+				w.writeStartElement("meta");
+				w.writeStartElement("description");
+				w.writeCharacters("truncated: "+truncated);
+				w.writeEndElement();
+				w.writeEndElement();
+				}
+			w.writeStartElement("graph");
+			w.writeAttribute("mode", "static");
+			w.writeAttribute("defaultedgetype", "directed");
+			
+			w.writeStartElement("attributes");
+			w.writeAttribute("class","node");
+			w.writeAttribute("mode","static");
+			for(String key:new String[]{"classes","interfaces","internalLinks"})
+				{
+				w.writeEmptyElement("attribute");
+				w.writeAttribute("id", key);
+				w.writeAttribute("title", key);
+				w.writeAttribute("type", "integer");
+				}
+			w.writeEndElement();//attributes
+			
+			w.writeStartElement("nodes");
+			for(Group g:this.groups.values())
+				{
+				w.writeStartElement("node");
+				w.writeAttribute("id", "N"+g.id);
+				w.writeAttribute("label", g.name);
+				w.writeStartElement("attvalues");
+				int values[]=new int[]{g.countClasses,g.countInterfaces,g.countInternalLinks};
+				String keys[]=new String[]{"classes","interfaces","internalLinks"};
+				for(int i=0;i< keys.length;++i)
+					{
+					w.writeEmptyElement("attvalue");
+					w.writeAttribute("for", keys[i]);
+					w.writeAttribute("value", String.valueOf(values[i]));
+					}
+				w.writeEndElement();//attvalues
+				w.writeEndElement();//node
+				}
+			w.writeEndElement();//nodes
+			
+			int relid=0;
+			w.writeStartElement("edges");
+			for(Map.Entry<String,int[]> e:this.edges.entrySet())
+				{
+				String tokens[]=e.getKey().split("[ ]");
+				for(Relation r:Relation.values())
+					{
+					int n=e.getValue()[r.ordinal()];
+					if(n==0) continue;
+					w.writeEmptyElement("edge");
+					w.writeAttribute("id", "E"+(++relid));
+					w.writeAttribute("type", "directed");
+					w.writeAttribute("source","N"+tokens[0]);
+					w.writeAttribute("target","N"+tokens[1]);
+					w.writeAttribute("label",r.name());
+					w.writeAttribute("weight",String.valueOf(n));
+					}
+				}
+			w.writeEndElement();//edges
+			w.writeEndElement();//graph
+			w.writeEndElement();//gexf
+			w.writeEndDocument();
+			w.flush();
+			}
+		}
+	
+	private class DotGraphPrinter
+		extends AbstractGraphPrinter
+		{
+		PrintStream out;
+		
+		public void print(PrintStream out) throws Exception
+			{
+			LOG.info("printing to dot");
+			this.out=out;
+			
+			out.println("digraph G{");
+			printDotTruncated(out);
+			
+			for(ClassWrapper c: Java2Graph.this.classes)
+				{
+				if(!isPrintable(c)) continue;
+				this.dot(c);
+				}
+			for(Link L: Java2Graph.this.links)
+				{
+				this.dot(L);
+				}
+			out.println("}");
+			out.flush();
+			}
+		private void dot(Link L)
+			{
+			if(!isPrintable(L)) return;
+			
+			out.print("id"+L.getFrom().getId()+"->id"+L.getTo().getId()+"[");
+			if(Java2Graph.this.cycleFinder!=null && Java2Graph.this.cycleFinder.isInCycle(L))
+				{
+				out.print("penwidth=3,style=bold,");
+				}
+			switch(L.getRelation())
+				{
+				case IMPLEMENTS: out.print("color=red,fontcolor=red,arrowType=onormal,"); break;
+				case DECLARES: out.print("color=green,fontcolor=green,"); break;
+				case SUPER:out.print("color=black,fontcolor=black,arrowType=normal,"); break;
+				case RETURNS:out.print("color=black,fontcolor=orange,arrowType=normal,"); break;
+				case ARGUMENT:out.print("color=black,fontcolor=blue,arrowType=normal,"); break;
+				default:System.err.println("???? dot type not handled "+L.getRelation());break;
+				}
+			if(L.getRelation()==Relation.RETURNS || L.getRelation()==Relation.ARGUMENT )
+				{
+				out.print("label=\"");
+				for(int i=0;i< L.getMethodCount();++i)
+					{
+					symbols.write(L.getMethodSymbol(i), out);
+					out.print(' ');
+					}
+				out.print("\"");
+				}
+			else
+				
+				{
+				out.print("label=\""+L.getRelation().name().toLowerCase()+"\"");
+				}
+			out.println("]");
+			}
+		
+		private void dot(ClassWrapper C)
+			{
+			out.print("id"+C.getId()+"[shape=rectangle,style=filled,");
+			if(C.isInterface())
+				{
+				out.println("fillcolor=khaki,");
+				}
+			else
+				{
+				out.println("fillcolor=gray77,");
+				}
+			if(Java2Graph.this.cycleFinder!=null && Java2Graph.this.cycleFinder.getCycle(C)!=-1)
+				{
+				out.print("color=red,penwidth=3,");
+				}
+			out.print("label=\"");
+			symbols.write(C.getNameSymbol(), out);
+			out.print("\"");
+			out.println("]");
+			}
+		}
+
+	
+	
+	
+	
+		
+		
+
+	
+	/** binary graph file, see GraphFile. Can be converted later with --convert */
+	private class BinaryPrinter
+		extends AbstractGraphPrinter
+		{
+		public void print(PrintStream out) throws Exception
+			{
+			LOG.info("printing to binary");
+			GraphFile.write(out, symbols, getPrintableClasses(), getPrintableLinks(), truncated);
+			}
+		}
+	
+	/** SVG output, with a layered layout computed by java2graph: graphviz is not needed */
+	private class SvgPrinter
+		extends AbstractGraphPrinter
+		{
+		/** height of a class */
+		private static final double NODE_HEIGHT=24.0;
+		/** approximate width of a character of the monospace font */
+		private static final double CHAR_WIDTH=7.2;
+		
+		XMLStreamWriter w;
+		LayeredLayout layout;
+		
+		@Override
+		public void print(PrintStream out) throws Exception
+			{
+			LOG.info("printing to svg");
+			List<ClassWrapper> nodes=getPrintableClasses();
+			List<Link> edges=getPrintableLinks();
+			Map<ClassWrapper,Integer> node2index=new HashMap<ClassWrapper,Integer>(nodes.size());
+			double width[]=new double[nodes.size()];
+			double height[]=new double[nodes.size()];
+			for(int i=0;i< nodes.size();++i)
+				{
+				node2index.put(nodes.get(i), i);
+				width[i]=symbols.length(nodes.get(i).getNameSymbol())*CHAR_WIDTH+16.0;
+				height[i]=NODE_HEIGHT;
+				}
+			/* the layers come from the hierarchy: super classes and declaring classes are above */
+			this.layout=new LayeredLayout(width,height);
+			int route[]=new int[edges.size()];
+			for(int i=0;i< edges.size();++i)
+				{
+				Link L=edges.get(i);
+				int from=node2index.get(L.getFrom());
+				int to=node2index.get(L.getTo());
+				switch(L.getRelation())
+					{
+					case SUPER: case IMPLEMENTS: route[i]=layout.addEdge(to, from); break;
+					case DECLARES: route[i]=layout.addEdge(from, to); break;
+					default: route[i]=-1; break;
+					}
+				}
+			long start=System.currentTimeMillis();
+			layout.run();
+			LOG.info("layout: "+nodes.size()+" classes, "+layout.getLayerCount()+" layers, "+
+				layout.getCrossings()+" crossings, "+(System.currentTimeMillis()-start)+" ms");
+			
+			XMLOutputFactory xmlfactory= XMLOutputFactory.newInstance();
+			this.w= xmlfactory.createXMLStreamWriter(out,"UTF-8");
+			w.writeStartDocument("UTF-8","1.0");
+			w.writeStartElement("svg");
+			w.writeAttribute("xmlns", "http://www.w3.org/2000/svg");
+			w.writeAttribute("width", fmt(layout.getWidth()));
+			w.writeAttribute("height", fmt(layout.getHeight()));
+			w.writeAttribute("font-family", "monospace");
+			w.writeAttribute("font-size", "12");
+			
+			w.writeStartElement("defs");
+			marker("arrow-black","black","black");
+			marker("arrow-red","red","white");
+			marker("arrow-green","green","green");
+			w.writeEndElement();
+			
+			if(truncated!=null)
+				{
+				w.writeStartElement("text");
+				w.writeAttribute("x", "5");
+				w.writeAttribute("y", "12");
+				w.writeCharacters("truncated: "+truncated);
+				w.writeEndElement();
+				}
+			
+			for(int i=0;i< edges.size();++i)
+				{
+				Link L=edges.get(i);
+				int from=node2index.get(L.getFrom());
+				int to=node2index.get(L.getTo());
+				/* the bends, from the 'from' class to the 'to' class */
+				List<double[]> bends=new ArrayList<double[]>();
+				if(route[i]!=-1)
+					{
+					bends.addAll(Arrays.asList(layout.getRoute(route[i])));
+					if(L.getRelation()!=Relation.DECLARES) Collections.reverse(bends);
+					}
+				edge(L,from,to,bends,width,height);
+				}
+			for(int i=0;i< nodes.size();++i)
+				{
+				node(nodes.get(i),i,width[i],height[i]);
+				}
+			w.writeEndElement();
+			w.writeEndDocument();
+			w.flush();
+			out.flush();
+			}
+		
+		private String fmt(double v)
+			{
+			return String.format(java.util.Locale.US,"%.1f",v);
+			}
+		
+		private void marker(String id,String stroke,String fill) throws XMLStreamException
+			{
+			w.writeStartElement("marker");
+			w.writeAttribute("id", id);
+			w.writeAttribute("viewBox", "0 0 10 10");
+			w.writeAttribute("refX", "10");
+			w.writeAttribute("refY", "5");
+			w.writeAttribute("markerWidth", "8");
+			w.writeAttribute("markerHeight", "8");
+			w.writeAttribute("orient", "auto");
+			w.writeEmptyElement("path");
+			w.writeAttribute("d", "M0,0L10,5L0,10z");
+			w.writeAttribute("stroke", stroke);
+			w.writeAttribute("fill", fill);
+			w.writeEndElement();
+			}
+		
+		/** where an edge leaves a class toward the point x,y */
+		private double[] anchor(int node,double w,double h,double x,double y)
+			{
+			double cx=layout.getX(node);
+			double cy=layout.getY(node);
+			if(y< cy-h/2.0) return new double[]{cx,cy-h/2.0};
+			if(y> cy+h/2.0) return new double[]{cx,cy+h/2.0};
+			return new double[]{x< cx?cx-w/2.0:cx+w/2.0,cy};
+			}
+		
+		private void edge(Link L,int from,int to,List<double[]> bends,double width[],double height[]) throws XMLStreamException
+			{
+			String color;
+			String fontColor;
+			String marker;
+			switch(L.getRelation())
+				{
+				case IMPLEMENTS: color="red"; fontColor="red"; marker="arrow-red"; break;
+				case DECLARES: color="green"; fontColor="green"; marker="arrow-green"; break;
+				case RETURNS: color="black"; fontColor="orange"; marker="arrow-black"; break;
+				case ARGUMENT: color="black"; fontColor="blue"; marker="arrow-black"; break;
+				default: color="black"; fontColor="black"; marker="arrow-black"; break;
+				}
+			double first[]=(bends.isEmpty()?new double[]{layout.getX(to),layout.getY(to)}:bends.get(0));
+			double last[]=(bends.isEmpty()?new double[]{layout.getX(from),layout.getY(from)}:bends.get(bends.size()-1));
+			List<double[]> points=new ArrayList<double[]>();
+			points.add(anchor(from,width[from],height[from],first[0],first[1]));
+			points.addAll(bends);
+			points.add(anchor(to,width[to],height[to],last[0],last[1]));
+			
+			StringBuilder sb=new StringBuilder();
+			for(double p[]:points)
+				{
+				if(sb.length()>0) sb.append(' ');
+				sb.append(fmt(p[0])).append(',').append(fmt(p[1]));
+				}
+			w.writeStartElement("polyline");
+			w.writeAttribute("points", sb.toString());
+			w.writeAttribute("fill", "none");
+			w.writeAttribute("stroke", color);
+			if(cycleFinder!=null && cycleFinder.isInCycle(L))
+				{
+				w.writeAttribute("stroke-width", "3");
+				}
+			w.writeAttribute("marker-end", "url(#"+marker+")");
+			w.writeStartElement("title");
+			w.writeCharacters(L.toString());
+			w.writeEndElement();
+			w.writeEndElement();
+			
+			if(L.hasMethods())
+				{
+				StringBuilder label=new StringBuilder();
+				for(int i=0;i< L.getMethodCount();++i)
+					{
+					if(label.length()>0) label.append(' ');
+					symbols.appendTo(L.getMethodSymbol(i), label);
+					}
+				double mid[]=points.get(points.size()/2);
+				double prev[]=points.get(points.size()/2-1);
+				w.writeStartElement("text");
+				w.writeAttribute("x", fmt((mid[0]+prev[0])/2.0));
+				w.writeAttribute("y", fmt((mid[1]+prev[1])/2.0));
+				w.writeAttribute("font-size", "10");
+				w.writeAttribute("fill", fontColor);
+				w.writeCharacters(label.toString());
+				w.writeEndElement();
+				}
+			}
+		
+		private void node(ClassWrapper C,int index,double width,double height) throws XMLStreamException
+			{
+			double cx=layout.getX(index);
+			double cy=layout.getY(index);
+			w.writeStartElement("g");
+			w.writeAttribute("id", "id"+C.getId());
+			w.writeEmptyElement("rect");
+			w.writeAttribute("x", fmt(cx-width/2.0));
+			w.writeAttribute("y", fmt(cy-height/2.0));
+			w.writeAttribute("width", fmt(width));
+			w.writeAttribute("height", fmt(height));
+			/* khaki and gray77, as in the DOT output */
+			w.writeAttribute("fill", C.isInterface()?"#F0E68C":"#C4C4C4");
+			if(cycleFinder!=null && cycleFinder.getCycle(C)!=-1)
+				{
+				w.writeAttribute("stroke", "red");
+				w.writeAttribute("stroke-width", "3");
+				}
+			else
+				{
+				w.writeAttribute("stroke", "black");
+				}
+			w.writeStartElement("text");
+			w.writeAttribute("x", fmt(cx));
+			w.writeAttribute("y", fmt(cy+4.0));
+			w.writeAttribute("text-anchor", "middle");
+			w.writeCharacters(C.toString());
+			w.writeEndElement();
+			w.writeEndElement();
+			}
+		}
+	
+	/** a link between two classes, found by reflect() before the classes are wrapped */
+	private static class Probe
+		{
+		final Class<?> from;
+		final Class<?> to;
+		final Relation relation;
+		/** name of the method for RETURNS/ARGUMENT, or null */
+		final String method;
+		Probe(Class<?> from,Class<?> to,Relation relation,String method)
+			{
+			this.from=from;
+			this.to=to;
+			this.relation=relation;
+			this.method=method;
+			}
+		}
+	
+	/** the links of a class found by the reflection, without the links found by the indexes of the hierarchy */
+	private static class Reflected
+		{
+		final List<Probe> probes=new ArrayList<Probe>();
+		/** where the classes implementing this interface go in 'probes', -1 if they are not searched */
+		int implementorsAt=-1;
+		}
+	
+	/** orders the methods by name, then by signature */
+	private static final Comparator<Method> METHOD_ORDER=new Comparator<Method>()
+		{
+		@Override
+		public int compare(Method m1, Method m2)
+			{
+			int i=m1.getName().compareTo(m2.getName());
+			if(i!=0) return i;
+			return m1.toString().compareTo(m2.toString());
+			}
+		};
+	
+	/** number of classes of the frontier probed in parallel, before the links are merged in order */
+	private static final int TRAVERSAL_BATCH=4096;
+	
+	/** all the files */
+	private ArrayList<File> files=new ArrayList<File>();
+	/** the directories found in the classpath */
+	private Set<File> directories=new HashSet<File>();
+	/** the '-cp' entries, as given by the user */
+	private List<File> classpath=new ArrayList<File>();
+	/** the classes, or the jars, given by the user */
+	private List<String> userTargets=new ArrayList<String>();
+	/** the jars, mapped in memory. Shared by the targets discovery and the class loader */
+	private Map<File,MappedJar> mappedJars=new HashMap<File,MappedJar>();
+	/** output file, null: stdout */
+	private File outputFile=null;
+	/** the classpath of the previous version, for the diff mode */
+	private List<File> diffClasspath=new ArrayList<File>();
+	/** where to write the JSON summary of the diff. '-': stderr */
+	private String diffSummary=null;
+	/** watch the classpath and rewrite the output when a jar changes */
+	private boolean watchClasspath=false;
+	/** all the classes that may be observed */
+	private Set<ClassWrapper> classes= new LinkedHashSet<ClassWrapper>();
+	/** index of the classes by their delegated class */
+	private Map<Class<?>,ClassWrapper> class2wrapper=new HashMap<Class<?>,ClassWrapper>();
+	/** the names of the classes and of the methods */
+	private SymbolTable symbols=new SymbolTable();
+	/** index of the classes by the symbol of their name */
+	private ClassWrapper symbol2wrapper[]=new ClassWrapper[1024];
+	/** index of the classes by their super class */
+	private Map<Class<?>,List<ClassWrapper>> subclassesOf=new HashMap<Class<?>,List<ClassWrapper>>();
+	/** index of the classes (and interfaces) by the interfaces they declare */
+	private Map<Class<?>,List<ClassWrapper>> implementorsOf=new HashMap<Class<?>,List<ClassWrapper>>();
+	/** batch mode: the file of the jobs. null: no batch */
+	private File batchFile=null;
+	/** the types that could not be resolved, reported at the end of the run */
+	private MissingTypes missingTypes=new MissingTypes();
+	/** the names not found by findByName */
+	private Set<String> unknownNames=new HashSet<String>();
+	/** --convert: the graph is read from this binary graph file instead of the classpath */
+	private File convertFile=null;
+	/** the binary graph file being read */
+	private GraphFile graphFile=null;
+	/** the classes of the nodes of the binary graph file, created on demand */
+	private ClassWrapper fileClasses[]=null;
+	/** the nodes of the binary graph file discarded by the filters */
+	private boolean fileDiscarded[]=null;
+	/** the symbols of the strings of the binary graph file, -1 if not interned yet */
+	private int fileSymbols[]=null;
+	/** index of the nodes of the binary graph file by class */
+	private Map<ClassWrapper,Integer> fileNodeIndex=new HashMap<ClassWrapper,Integer>();
+	/** batch mode: the classes loaded once for all the jobs. null: the classpath is loaded by scan() */
+	private List<Class<?>> sharedClasses=null;
+	/** stop the traversal after this number of classes. -1: no limit */
+	private long maxNodes=-1L;
+	/** stop the traversal after this number of links. -1: no limit */
+	private long maxEdges=-1L;
+	/** stop the traversal after this duration (millis) from the start of the run. -1: no limit */
+	private long deadlineMillis=-1L;
+	/** time when the traversal must stop, or -1 */
+	private long deadline=-1L;
+	/** print the progress of the traversal every 'n' seconds. -1: never */
+	private int progressSeconds=-1;
+	/** the budget that stopped the traversal, or null */
+	private String truncated=null;
+	/** query mode: the class where the path starts or from where the classes are reached */
+	private String querySource=null;
+	/** query mode: the class where the path ends. null: reachable set */
+	private String queryTarget=null;
+	/** relations followed by the queries. empty: all */
+	private Set<Relation> queryRelations=EnumSet.noneOf(Relation.class);
+	/** all the links between the classes */
+	private LinkStore links= new InMemoryLinkStore();
+	/** --aggregate: the links are folded into the groups, only the keys (from,to) of the links are kept. null otherwise */
+	private LongHashSet aggregatedLinks=null;
+	/** if >0 , max number of links kept in memory before they're written to disk */
+	private int maxLinksInMemory=-1;
+	/** directory for the temporary files */
+	private File tmpDir=null;
+	/** ignore pattern */
+	private List<Filter<ClassWrapper>> discardClassFilters= new ArrayList<Filter<ClassWrapper>>();
+	
+	/** are we using any.any$any classes ? */ 
+	private boolean usingDeclaredClasses=true;
+	/** are we using interfaces ? */
+	private boolean usingInterfaces=true;
+	/** are we looking for classes implementing interfaces */
+	private boolean usingClassesImplementingInterfaces=true;
+	/** use private inner classes */
+	private boolean usePrivateDeclaredClasses=false;
+	/** distance max to class targeted by user -1= no restriction*/
+	private int limitDistance=-1;
+	/** use method signatures */
+	private boolean useMethodReturnType=false;
+	/** use method signatures */
+	private boolean useMethodArguments=false;
+	/** use Annotations */
+	private boolean useAnnotations=false;
+	/** collapse the classes into their package or their jar. null: no aggregation */
+	private AggregateLevel aggregateLevel=null;
+	/** remove the SUPER/IMPLEMENTS links implied by a longer path */
+	private boolean useTransitiveReduction=false;
+	/** where to write the cycles. null: no cycle detection. '-': stderr */
+	private String cyclesOutput=null;
+	/** granularity of the cycle detection */
+	private CycleFinder.Level cycleLevel=CycleFinder.Level.CLASS;
+	/** relations used for the cycle detection. empty: all */
+	private Set<Relation> cycleRelations=EnumSet.noneOf(Relation.class);
+	/** exit with an error if a cycle is found in a package starting with one of those prefixes */
+	private List<String> failOnCyclesIn=new ArrayList<String>();
+	/** the cycles found after the traversal */
+	private CycleFinder cycleFinder=null;
+	/** streaming printers: classes already sent to the printer */
+	private HashSet<ClassWrapper> streamedClasses=new HashSet<ClassWrapper>();
+	/** streaming printers: links waiting for one of their ends to be sent */
+	private HashMap<ClassWrapper,List<Link>> pendingLinks=new HashMap<ClassWrapper,List<Link>>();
+	
+	/** empty private cstor */
+	private Java2Graph()
+		{
 		
 		}
 	
@@ -505,6 +1156,7 @@ public class Java2Graph
 		
 		if(jarFile.isDirectory())
 			{
+			this.directories.add(jarFile);
 			for(File fc: jarFile.listFiles(new FileFilter()
 				{
 				@Override
@@ -522,414 +1174,1364 @@ public class Java2Graph
 		this.files.add(jarFile);
 		}
 	
-	/** finds a class Wrapper by its name */
-	private ClassWrapper findByName(String s)
+	/** returns the memory-mapped view of this jar. The jar is only mapped again if it was modified */
+	private MappedJar getMappedJar(File jarFile) throws IOException
 		{
-		for(ClassWrapper cw: this.classes)
+		MappedJar jar=this.mappedJars.get(jarFile);
+		if(jar!=null && !jar.isModified())
 			{
-			if(cw.getWrappedClass().getName().equals(s))
-				{
-				return cw;
-				}
+			return jar;
 			}
-		try {
-			Class<?> c=Class.forName(s);
+		LOG.info("Mapping "+jarFile);
+		jar=new MappedJar(jarFile);
+		this.mappedJars.put(jarFile, jar);
+		return jar;
+		}
+	
+	/** returns the '.class' entries of this jar */
+	private List<String> getClassEntries(File jarFile) throws IOException
+		{
+		List<String> L=new ArrayList<String>();
+		for(String name:getMappedJar(jarFile).getEntryNames())
+			{
+			if(!name.endsWith(".class")) continue;
+			L.add(name);
+			}
+		return L;
+		}
+	
+	/** returns the names of the top-level classes of this jar */
+	private List<String> getClassNames(File jarFile) throws IOException
+		{
+		List<String> L=new ArrayList<String>();
+		for(String entryName:getClassEntries(jarFile))
+			{
+			entryName=entryName.substring(0,entryName.length()-6);//remove '.class'
+			if(entryName.indexOf('-')!=-1) continue; 
+			if(entryName.indexOf('$')!=-1) continue;
+			L.add(entryName.replace("/", "."));
+			}
+		return L;
+		}
+	
+	/** adds a class to the universe and to the indexes */
+	private void addClass(ClassWrapper cw)
+		{
+		if(!this.classes.add(cw)) return;
+		int name=cw.getNameSymbol();
+		if(name>=this.symbol2wrapper.length)
+			{
+			this.symbol2wrapper=Arrays.copyOf(this.symbol2wrapper, Math.max(name+1, this.symbol2wrapper.length*2));
+			}
+		this.symbol2wrapper[name]=cw;
+		Class<?> c=cw.getWrappedClass();
+		/* a class read from a binary graph file */
+		if(c==null) return;
+		this.class2wrapper.put(c, cw);
+		if(c.getSuperclass()!=null)
+			{
+			index(this.subclassesOf,c.getSuperclass(),cw);
+			}
+		for(Class<?> eInterface:c.getInterfaces())
+			{
+			index(this.implementorsOf,eInterface,cw);
+			}
+		}
+	
+	/** appends the class to the list of the key */
+	private static void index(Map<Class<?>,List<ClassWrapper>> map,Class<?> key,ClassWrapper cw)
+		{
+		List<ClassWrapper> L=map.get(key);
+		if(L==null)
+			{
+			L=new ArrayList<ClassWrapper>();
+			map.put(key, L);
+			}
+		L.add(cw);
+		}
+	
+	/** returns the indexed classes for this key, or an empty list */
+	private static List<ClassWrapper> indexed(Map<Class<?>,List<ClassWrapper>> map,Class<?> key)
+		{
+		List<ClassWrapper> L=map.get(key);
+		return L==null?Collections.<ClassWrapper>emptyList():L;
+		}
+	
+	/** removes all the classes and the indexes */
+	private void clearClasses()
+		{
+		this.classes.clear();
+		this.class2wrapper.clear();
+		Arrays.fill(this.symbol2wrapper, null);
+		this.subclassesOf.clear();
+		this.implementorsOf.clear();
+		this.unknownNames.clear();
+		}
+	
+	/** finds a class Wrapper by its name */
+	private ClassWrapper findByName(String s)
+		{
+		int name=this.symbols.find(s);
+		ClassWrapper cw=(name>=0 && name< this.symbol2wrapper.length?this.symbol2wrapper[name]:null);
+		if(cw!=null) return cw;
+		if(this.unknownNames.contains(s)) return null;
+		try {
+			Class<?> c=Class.forName(s);
 			LOG.info("adding class "+c);
-			ClassWrapper cw= new ClassWrapper(c);
-			this.classes.add(cw);
+			cw= new ClassWrapper(c,this.symbols);
+			this.addClass(cw);
 			return cw;
 		} catch (Exception e) {
 			LOG.warning(s+" not found");
+			this.unknownNames.add(s);
 			return null;
 			}
 		}
-
+	/** finds a class Wrapper by its delegated class */
+	private ClassWrapper findByClass(Class<?> c)
+		{
+		if(c==null) return null;
+		ClassWrapper cw=this.class2wrapper.get(c);
+		if(cw!=null) return cw;
+		cw= new ClassWrapper(c,this.symbols);
+		this.addClass(cw);
+		return cw;
+		}
+	/** is this class accepted by the filters ? */
+	private boolean isAccepted(ClassWrapper cw)
+		{
+		for(Filter<ClassWrapper> filter:this.discardClassFilters)
+			{
+			if((!filter.accept(cw)))
+				{
+				return false;
+				}
+			}
+		return true;
+		}
+	/** shall we print this class ? */
+	private boolean isPrintable(ClassWrapper c)
+		{
+		if(!c.isVisited()) return false;
+		if(this.limitDistance>0 && c.distancdeToUserTarget>this.limitDistance)
+			{
+			return false;
+			}
+		return true;
+		}
+	
+	/** shall we print this link ? */
+	private boolean isPrintable(Link L)
+		{
+		return isPrintable(L.getFrom()) && isPrintable(L.getTo());
+		}
+	
+	/** adds a link to the graph, forwards it to a streaming printer */
+	private void addLink(Link L)
+		{
+		if(this.aggregatedLinks!=null)
+			{
+			if(!this.aggregatedLinks.add((((long)L.getFrom().getId())<<32) | (L.getTo().getId() & 0xFFFFFFFFL))) return;
+			streamLink(L);
+			return;
+			}
+		try
+			{
+			if(!this.links.add(L)) return;
+			}
+		catch(IOException err)
+			{
+			throw new RuntimeException(err);
+			}
+		if(!this.graphPrinter.isStreaming()) return;
+		streamLink(L);
+		}
+	
+	/** number of distinct links of the graph */
+	private long countLinks()
+		{
+		return this.aggregatedLinks!=null?this.aggregatedLinks.size():this.links.size();
+		}
+	
+	/** sends the link if both ends were sent, or waits for the missing end */
+	private void streamLink(Link L)
+		{
+		ClassWrapper waitFor=null;
+		if(!this.streamedClasses.contains(L.getFrom()))
+			{
+			waitFor=L.getFrom();
+			}
+		else if(!this.streamedClasses.contains(L.getTo()))
+			{
+			waitFor=L.getTo();
+			}
+		if(waitFor!=null)
+			{
+			List<Link> pending=this.pendingLinks.get(waitFor);
+			if(pending==null)
+				{
+				pending=new ArrayList<Link>();
+				this.pendingLinks.put(waitFor, pending);
+				}
+			pending.add(L);
+			return;
+			}
+		try
+			{
+			this.graphPrinter.link(L);
+			}
+		catch(Exception err)
+			{
+			throw new RuntimeException(err);
+			}
+		}
+	
+	/** sends a visited class to a streaming printer, once it is within the distance limit */
+	private void streamClass(ClassWrapper cw)
+		{
+		if(!this.graphPrinter.isStreaming()) return;
+		if(!cw.isVisited()) return;
+		if(this.limitDistance>0 && cw.distancdeToUserTarget>this.limitDistance) return;
+		if(!this.streamedClasses.add(cw)) return;
+		try
+			{
+			this.graphPrinter.node(cw);
+			}
+		catch(Exception err)
+			{
+			throw new RuntimeException(err);
+			}
+		List<Link> pending=this.pendingLinks.remove(cw);
+		if(pending==null) return;
+		for(Link L:pending)
+			{
+			streamLink(L);
+			}
+		}
+	
+	/**
+	 * returns the links between this class and its neighbours found by the reflection.
+	 * Doesn't read the indexes of the hierarchy, which grow while the classes are wrapped:
+	 * may be called by several threads at once.
+	 */
+	private Reflected reflect(Class<?> wrappedClass)
+		{
+		Reflected reflected=new Reflected();
+		List<Probe> neighbours=reflected.probes;
+	
+		Class<?> superClass= wrappedClass.getSuperclass();
+		if(superClass!=null && superClass!=Object.class)
+			{
+			neighbours.add(new Probe(wrappedClass,superClass,Relation.SUPER,null));
+			}
+	
+		if(usingInterfaces)
+			{
+			for(Class<?> eInterface:wrappedClass.getInterfaces())
+				{
+				/* this interface comes from parent ? */
+				if(superClass==null) continue;
+				for(Class<?> parentInterface:superClass.getInterfaces())
+					{
+					if(parentInterface==eInterface)
+						{
+						eInterface=null;
+						break;
+						}
+					}
+				
+				if(eInterface==null) continue;
+				
+				
+				neighbours.add(new Probe(wrappedClass,eInterface,
+						(wrappedClass.isInterface()?Relation.SUPER:Relation.IMPLEMENTS),null));
+				}
+			
+			if(usingClassesImplementingInterfaces && wrappedClass.isInterface())
+				{
+				reflected.implementorsAt=neighbours.size();
+				}
+			
+			if(this.useMethodReturnType || this.useMethodArguments)
+				{
+				/* the order of getDeclaredMethods() is not specified: sorted for a deterministic output */
+				Method methods[];
+				try
+					{
+					methods=wrappedClass.getDeclaredMethods();
+					}
+				catch(NoClassDefFoundError err)
+					{
+					/* a method uses a missing type */
+					this.missingTypes.incomplete(wrappedClass.getName(), String.valueOf(err.getMessage()), ClassWrapper.jarNameOf(wrappedClass));
+					methods=new Method[0];
+					}
+				Arrays.sort(methods,METHOD_ORDER);
+				for(Method method:methods)
+					{
+					if(method.getName().contains("$")) continue;
+					if(Modifier.isPrivate(method.getModifiers())) continue;
+					for(int step=0;step<2;++step)
+						{
+						Set<Class<?>> classesInvolved1=new LinkedHashSet<Class<?>>();
+						
+						if(step==0 && this.useMethodReturnType)
+							{
+							classesInvolved1.add(method.getReturnType());
+							}
+						else if(step==1 && this.useMethodArguments)
+							{
+							classesInvolved1.addAll(Arrays.asList(method.getParameterTypes()));
+							}
+						else
+							{
+							continue;
+							}
+						
+						for(Class<?> clazz: classesInvolved1)
+							{
+							if(clazz.isArray())
+								{
+								clazz=clazz.getComponentType();
+								}
+							if(clazz.isPrimitive() || clazz==String.class) continue;
+							
+							if(clazz==Object.class) continue;
+							if(clazz==Short.class) continue;
+							if(clazz==Integer.class) continue;
+							if(clazz==Long.class) continue;
+							if(clazz==Byte.class) continue;
+							if(clazz==Boolean.class) continue;
+							if(clazz.getPackage()!=null)
+								{
+								if(clazz.getPackage().getName().startsWith("java.")) continue;
+								if(clazz.getPackage().getName().startsWith("javax.")) continue;
+								}
+							neighbours.add(new Probe(wrappedClass,clazz,
+									step==0?Relation.RETURNS:Relation.ARGUMENT,
+									(Modifier.isStatic(method.getModifiers())?"*":"")+method.getName()
+									));
+							}
+						}
+					
+					}
+				}
+			
+			}
+		
+		if(usingDeclaredClasses)
+			{
+			Class<?> subclasses[];
+			
+			if(usePrivateDeclaredClasses)
+				{
+				try
+					{
+					subclasses=wrappedClass.getDeclaredClasses();
+					}
+				catch(NoClassDefFoundError err)
+					{
+					this.missingTypes.incomplete(wrappedClass.getName(), String.valueOf(err.getMessage()), ClassWrapper.jarNameOf(wrappedClass));
+					subclasses=new Class<?>[0];
+					}
+				}
+			else
+				{
+				try
+					{
+					subclasses=wrappedClass.getClasses();
+					}
+				catch(Throwable err)
+					{
+					subclasses=new Class[0];
+					}	
+				}
+			for(Class<?> d:subclasses)
+				{
+				neighbours.add(new Probe(wrappedClass,d,Relation.DECLARES,null));
+				}
+			}
+		
+		return reflected;
+		}
+	
+	/** returns all the links between this class and its neighbours: the links found by the reflection and by the indexes. Not thread-safe */
+	private List<Probe> probe(Class<?> wrappedClass,Reflected reflected)
+		{
+		List<Probe> neighbours=new ArrayList<Probe>(reflected.probes.size());
+		int implementorsAt=(reflected.implementorsAt==-1?reflected.probes.size():reflected.implementorsAt);
+		neighbours.addAll(reflected.probes.subList(0, implementorsAt));
+		if(reflected.implementorsAt!=-1)
+			{
+			for(ClassWrapper cw2:indexed(this.implementorsOf,wrappedClass))
+				{
+				neighbours.add(new Probe(cw2.getWrappedClass(),wrappedClass,Relation.IMPLEMENTS,null));
+				}
+			}
+		neighbours.addAll(reflected.probes.subList(implementorsAt, reflected.probes.size()));
+		for(ClassWrapper child: indexed(this.subclassesOf,wrappedClass))
+			{
+			neighbours.add(new Probe(child.getWrappedClass(),wrappedClass,Relation.SUPER,null));
+			}
+		return neighbours;
+		}
+	
+	/** wraps the classes of the probes, returns the links. Not thread-safe */
+	private List<Link> toLinks(List<Probe> probes)
+		{
+		List<Link> L=new ArrayList<Link>(probes.size());
+		for(Probe p:probes)
+			{
+			Link link=new Link(findByClass(p.from),findByClass(p.to),p.relation);
+			if(p.method!=null) link.addMethod(this.symbols.intern(p.method));
+			L.add(link);
+			}
+		return L;
+		}
+	
+	/** returns the links between this class and its neighbours. The links are not added to the graph */
+	private List<Link> expand(ClassWrapper cw)
+		{
+		return toLinks(probe(cw.getWrappedClass(),reflect(cw.getWrappedClass())));
+		}
+	
+	/** returns the budget exhausted by the traversal, or null */
+	private String checkBudget(long countVisited)
+		{
+		if(this.maxNodes>0 && countVisited>=this.maxNodes) return "max-nodes="+this.maxNodes;
+		if(this.maxEdges>0 && countLinks()>=this.maxEdges) return "max-edges="+this.maxEdges;
+		if(this.deadline>0L && System.currentTimeMillis()>=this.deadline) return "deadline";
+		return null;
+		}
+	
+	/** runs reflect() in parallel for each class of the batch. The results are in the order of the batch */
+	private List<Reflected> reflectAll(final List<ClassWrapper> batch)
+		{
+		final List<Reflected> reflected=new ArrayList<Reflected>(Collections.<Reflected>nCopies(batch.size(), null));
+		Parallel.forEach(batch.size(), new Parallel.Body()
+			{
+			@Override
+			public void run(int index)
+				{
+				reflected.set(index, reflect(batch.get(index).getWrappedClass()));
+				}
+			});
+		return reflected;
+		}
+	
+	/** workhorse. breadth-first traversal from the classes of the user: the nearest classes are visited first */
+	private void traverse(List<ClassWrapper> targets)
+		{
+		Set<ClassWrapper> discovered=new HashSet<ClassWrapper>();
+		List<ClassWrapper> frontier=new ArrayList<ClassWrapper>();
+		for(ClassWrapper cw:targets)
+			{
+			if(!isAccepted(cw) || !discovered.add(cw)) continue;
+			cw.distancdeToUserTarget=0;
+			frontier.add(cw);
+			}
+		long start=System.currentTimeMillis();
+		long nextReport=start+this.progressSeconds*1000L;
+		long countVisited=0L;
+		int distance=0;
+		/* the classes beyond the max distance would not be printed */
+		while(!frontier.isEmpty() && (this.limitDistance<=0 || distance<=this.limitDistance))
+			{
+			List<ClassWrapper> next=new ArrayList<ClassWrapper>();
+			List<Reflected> reflected=new ArrayList<Reflected>();
+			for(int i=0;i< frontier.size();++i)
+				{
+				this.truncated=checkBudget(countVisited);
+				if(this.truncated!=null)
+					{
+					LOG.warning("traversal truncated ("+this.truncated+") at distance "+distance);
+					return;
+					}
+				/* the reflection is run in parallel, for a batch of the frontier */
+				if(i%TRAVERSAL_BATCH==0)
+					{
+					reflected=reflectAll(frontier.subList(i, Math.min(frontier.size(), i+TRAVERSAL_BATCH)));
+					}
+				ClassWrapper cw=frontier.get(i);
+				LOG.info("running for "+cw.getWrappedClass());
+				cw.setVisited(true);
+				++countVisited;
+				/* the indexes of the hierarchy are read now: the previous classes of the batch may have wrapped new classes */
+				for(Link L:toLinks(probe(cw.getWrappedClass(),reflected.get(i%TRAVERSAL_BATCH))))
+					{
+					this.addLink(L);
+					ClassWrapper other=(L.getFrom()==cw?L.getTo():L.getFrom());
+					if(!isAccepted(other) || !discovered.add(other)) continue;
+					other.distancdeToUserTarget=distance+1;
+					next.add(other);
+					}
+				/* the methods of a link are merged while its source class is expanded: its links wait until now */
+				streamClass(cw);
+				if(this.progressSeconds>0 && System.currentTimeMillis()>=nextReport)
+					{
+					long now=System.currentTimeMillis();
+					System.err.println("[java2graph] distance "+distance+
+						": "+countVisited+" classes visited, frontier "+(frontier.size()-i-1+next.size())+
+						", "+countLinks()+" links, "+
+						String.format("%.1f",countVisited*1000.0/Math.max(1L,now-start))+" classes/s");
+					nextReport=now+this.progressSeconds*1000L;
+					}
+				}
+			frontier=next;
+			++distance;
+			}
+		}
+	
+	/** prints the reason why the graph is truncated, as a DOT label */
+	private void printDotTruncated(PrintStream out)
+		{
+		if(this.truncated==null) return;
+		out.println("label=\"truncated: "+this.truncated+"\";labelloc=t;");
+		}
+	
+	/** adds the classes of the classpath, or the classes shared by the batch, accepted by the filters */
+	private void scan() throws IOException
+		{
+		List<Class<?>> loaded=(this.sharedClasses!=null?this.sharedClasses:this.loadClasses(this.usingDeclaredClasses));
+		for(Class<?> c:loaded)
+			{
+			if(!this.usingDeclaredClasses && c.getName().indexOf('$')!=-1) continue;
+			ClassWrapper cw=new ClassWrapper(c,this.symbols);
+			if(!isAccepted(cw)) continue;
+			this.addClass(cw);
+			}
+		}
+	
+	/** loads the classes of the classpath, but the anonymous classes */
+	private List<Class<?>> loadClasses(boolean withDeclaredClasses) throws IOException
+			{
+			List<Class<?>> loaded=new ArrayList<Class<?>>();
+			ArrayList<MappedJar> jars=new ArrayList<MappedJar>();
+			for(File f:this.files)
+			 	{
+				jars.add(getMappedJar(f)); 
+			 	}
+			    
+			/* setup class loaded */
+		    MappedJarClassLoader cl= new MappedJarClassLoader(
+		    		jars,
+		    		ClassLoader.getSystemClassLoader(),
+		    		this.missingTypes
+		    		);
+		   
+		    
+		    //loop over each file
+		    for(File f:this.files)
+		    	{
+		    	LOG.info("Scanning "+f);
+		    	//loop over each entry of this jar file
+		    	for(String entryName:getClassEntries(f))
+		    		{
+		    		String className=entryName;
+		    		className=className.substring(0,className.length()-6);
+		    		className=className.replace('/','.');
+		    		int sub= className.indexOf('$');
+		    		if(sub!=-1 && withDeclaredClasses==false) continue;
+		    		//ignore anonymous classes
+		    		if(sub!=-1 && Character.isDigit(className.charAt(sub+1))) continue;
+		    		
+		    		try
+			    		{
+			    		loaded.add(cl.loadClass(className));
+			    		}
+		    		catch(IllegalAccessError err)
+		    			{
+		    			LOG.warning("#cannot access \""+className+"\" message:"+err.getMessage());
+		    			}
+		    		catch(NoClassDefFoundError err)
+		    			{
+		    			LOG.warning("#class def not found : \""+className+"\" message:"+err.getMessage());
+		    			}
+		    		catch(ClassNotFoundException err)
+		    			{
+		    			LOG.warning("#class not found : \""+className+"\" message:"+err.getMessage());
+		    			}
+		    		catch(java.lang.SecurityException err)
+		    			{
+		    			LOG.warning("#class not found : \""+className+"\" message:"+err.getMessage());
+		    			}
+		    		}
+		    	}
+		    return loaded;
+		    }
+	
+	private void run(HashSet<String> setOfClasses) throws IOException
+			{
+			LOG.info("run for "+setOfClasses);
+			this.scan();
+			List<ClassWrapper> targets=new ArrayList<ClassWrapper>();
+		    for(String x: setOfClasses)
+			    {
+			    ClassWrapper cw=findByName( x );
+			    if(cw==null)
+			    	{
+			    	System.err.println("Cannot find class "+x);
+			    	continue;
+			    	}
+			    cw.userTarget=true;
+			    targets.add(cw);
+			    }
+		    traverse(targets);
+			}
+	
+	private static final Set<String> COMMON_IGNORE=new HashSet<String>()
+			{{{
+			add("java.lang.Comparable");
+			add("java.util.Comparator");
+			add("java.lang.Enum");
+			add("java.io.Serializable");
+			add("java.io.Closeable");
+			add("java.lang.Cloneable");
+			add("java.lang.Throwable");
+			add("java.lang.Exception");
+			add("java.lang.RuntimeException");
+			}}};
+	
+			
+	private void usage()
+		{
+		System.err.println("Pierre Lindenbaum PhD. 2014");
+		System.err.println(" -h this screen");
+		System.err.println(" -cp <dir0:jar1:jar2:dir1:...> add a jar in the jar list. If directory, will add all the *ar files");
+		System.err.println(" -r <regex> add a pattern of classes to be ignored. Can be used muliple times");
+		System.err.println(" -R <package name> ignore the package starting with this string. Can be used muliple times");
+		System.err.println(" -i ignore interfaces");
+		System.err.println(" -p use *private* inner classes.");
+		System.err.println(" -m ignore classes iMplementing interfaces");
+		System.err.println(" -d ignore declared-classes (classes with $ in the name)");
+		System.err.println(" -o <file> output file");
+		System.err.println(" -L <level> Log Level. optional");
+		System.err.println(" -G graphviz output");
+		System.err.println(" -D dot output");
+		System.err.println(" -S svg output: layered layout of the hierarchy (super classes and declaring classes above), computed without graphviz");
+		System.err.println(" -J ndjson output: nodes and edges are streamed as they are discovered, followed by a summary record");
+		System.err.println(" -B binary output: a compact graph file, memory-mapped by --convert");
+		System.err.println(" --convert <file> read the graph from a binary file (-B) instead of the classpath, e.g. to print it as DOT or GEXF. The filters, -x, -T, --cycles, --path and --reachable-from are applied to the graph of the file");
+		System.err.println(" -x (int) max distance to classe(s) defined by user. Default: unlimited");
+		System.err.println(" -C ignore common classes: "+COMMON_IGNORE.toString());
+		System.err.println(" -M use methods return type");
+		System.err.println(" -A use methods arguments");
+		System.err.println(" --cycles <file> find the cycles (strongly connected components) and write them to this file. '-' for stderr. The cycles are highlighted in the DOT/GEXF output.");
+		System.err.println(" --cycle-level <class|package> granularity of the cycles. Default: class");
+		System.err.println(" --cycle-relations <R1,R2,...> relations used to find the cycles, amongst "+Arrays.toString(Relation.values())+". Default: all");
+		System.err.println(" --fail-on-cycles <prefix> exit with status 2 if a cycle involves a class or package starting with this prefix. Can be used muliple times");
+		System.err.println(" --aggregate <package|jar> collapse the classes into their package or their jar. The links are merged and counted per relation. DOT or GEXF output.");
+		System.err.println(" -W watch the classpath: the output (-o required) is rewritten each time a jar is modified or added. Never returns.");
+		System.err.println(" --links-in-memory (int) max number of links kept in memory. When it is reached, the links are written to sorted temporary files, merged when the graph is printed. Not with -J. Default: unlimited");
+		System.err.println(" --tmp-dir <dir> directory for the temporary files. Default: java.io.tmpdir");
+		System.err.println(" --diff-cp <dir0:jar1:jar2:dir1:...> classpath of the previous version: print the differences between the graphs of this classpath and of '-cp'. DOT or GEXF output.");
+		System.err.println(" --diff-summary <file> with --diff-cp, write a JSON summary of the added/removed/changed classes and links to this file. '-' for stderr.");
+		System.err.println(" -T transitive reduction: remove the SUPER/IMPLEMENTS relations implied by a longer path. The other relations of a link are kept. Ignored with -J");
+		System.err.println(" --max-nodes (long) stop the traversal after this number of classes, nearest classes first. The output is marked as truncated");
+		System.err.println(" --max-edges (long) stop the traversal after this number of links. The output is marked as truncated");
+		System.err.println(" --deadline <duration> stop the traversal after this duration (e.g. 1500ms, 30s, 5m). The output is marked as truncated");
+		System.err.println(" --progress (int) print the progress of the traversal to stderr every 'n' seconds");
+		System.err.println(" --batch <file> batch mode: each line of the file holds the options, the output (-o, required) and the classes of a job, separated by blanks. Lines starting with '#' are ignored. The classpath is loaded once and the jobs run in parallel. The options of the command line are shared by all the jobs");
+		System.err.println(" --path <A> <B> query: print only the shortest path(s) from class A to class B, following the direction of the links. Exit status 1 if there is no path. -x limits the length of the path");
+		System.err.println(" --reachable-from <A> query: print only the classes reached from class A, following the direction of the links. -x limits the depth");
+		System.err.println(" --relations <R1,R2,...> relations followed by the queries, amongst "+Arrays.toString(Relation.values())+". Default: all");
+		System.err.println("\n jar1 class-1  jar 2 jar 3 class-2 ... class-n");
+		}
+	
+	private static class FilterIgnore
+	implements Filter<ClassWrapper>
+		{
+		String name;
+		FilterIgnore(String name)
+			{
+			this.name=name;
+			}
+		@Override
+		public boolean accept(ClassWrapper data) {
+			return !data.getSymbols().equals(data.getNameSymbol(),name);
+			}
+		}
+
+	
+	private static class FilterIgnorePackageStartingWith
+		implements Filter<ClassWrapper>
+		{
+		String prefix;
+		FilterIgnorePackageStartingWith(String prefix)
+			{
+			this.prefix=prefix;
+			}
+		@Override
+		public boolean accept(ClassWrapper data) {
+			return !data.getSymbols().startsWith(data.getNameSymbol(),prefix);
+			}
+		}
 	
-	/** finds a class Wrapper by its delegated class */
-	private ClassWrapper findByClass(Class<?> c)
+	private static class FilterIgnoreRegex
+	implements Filter<ClassWrapper>
 		{
-		if(c==null) return null;
-		for(ClassWrapper cw: this.classes)
+		Pattern regex;
+		FilterIgnoreRegex(Pattern regex)
 			{
-			if(cw.getWrappedClass()==c) return cw;
+			this.regex=regex;
+			}
+		@Override
+		public boolean accept(ClassWrapper data) {
+			return !regex.matcher(data.getSymbols().chars(data.getNameSymbol())).matches();
 			}
-		ClassWrapper cw= new ClassWrapper(c);
-		this.classes.add(cw);
-		return cw;
 		}
-	
 
+
+	
 	
-	/** workhorse. recursive call for this class wrapper */
-	private void recursive(ClassWrapper cw,int distance)
+	/** finds the cycles in the printable links, writes them. Returns 2 if a cycle was found in a package selected by the user */
+	private int findCycles() throws IOException
 		{
-		if(cw==null) return;
-		
-		for(Filter<Class<?>> filter:this.discardClassFilters)
+		List<Link> printable=getPrintableLinks();
+		this.cycleFinder=new CycleFinder(this.cycleLevel, this.cycleRelations);
+		int n=this.cycleFinder.find(printable);
+		LOG.info("COUNT(CYCLES) : "+n);
+		PrintStream out=(this.cyclesOutput.equals("-")?System.err:new PrintStream(new File(this.cyclesOutput)));
+		int idx=0;
+		for(List<String> cycle:this.cycleFinder.getCycles())
+			{
+			out.println("cycle "+(++idx)+" ("+cycle.size()+(this.cycleLevel==CycleFinder.Level.CLASS?" classes":" packages")+"): "+cycle);
+			}
+		out.flush();
+		if(out!=System.err) out.close();
+		for(String prefix:this.failOnCyclesIn)
 			{
-			if((!filter.accept(cw.getWrappedClass())))
+			if(this.cycleFinder.hasCycleIn(prefix))
 				{
-				return;
+				System.err.println("cycle(s) found in "+prefix);
+				return 2;
 				}
 			}
-		
-		if(distance< cw.distancdeToUserTarget) cw.distancdeToUserTarget=distance;
-		if(cw.isVisited()) return;
-		LOG.info("running for "+cw.getWrappedClass());
-		HashSet<ClassWrapper> nextToBeProcessed= new HashSet<ClassWrapper>();
-		//System.err.println("Found "+cw);
-		cw.setVisited(true);
-		Class<?> wrappedClass= cw.getWrappedClass();
+		return 0;
+		}
 	
-		Class<?> superClass= wrappedClass.getSuperclass();
-		if(superClass!=null && superClass!=Object.class)
+	/** links used by the queries: the links starting from, or ending to, a class */
+	private List<Link> queryLinks(ClassWrapper cw,boolean forward,boolean hierarchyOnly,Set<Relation> relations)
+		{
+		List<Link> L=new ArrayList<Link>();
+		Class<?> c=cw.getWrappedClass();
+		if(!hierarchyOnly)
 			{
-			ClassWrapper cw2= this.findByClass(superClass);
-			if(cw2!=null)
+			/* expand() returns one link per method: merge their methods */
+			Map<Link,Link> merged=new LinkedHashMap<Link,Link>();
+			for(Link link:expand(cw))
 				{
-				this.links.add(new Link(cw,cw2,Relation.SUPER));
-				nextToBeProcessed.add(cw2);
+				if(link.getFrom()!=cw) continue;
+				Link prev=merged.get(link);
+				if(prev==null)
+					{
+					merged.put(link, link);
+					}
+				else
+					{
+					prev.merge(link);
+					}
 				}
+			L.addAll(merged.values());
 			}
-	
-		if(usingInterfaces)
+		else if(forward)
 			{
-			for(Class<?> eInterface:wrappedClass.getInterfaces())
+			if(c.getSuperclass()!=null && c.getSuperclass()!=Object.class)
 				{
-				ClassWrapper cwInterface = findByClass(eInterface);
-				if(cwInterface==null) continue;
-					
-				/* this interface comes from parent ? */
-				ClassWrapper parentClass= findByClass(superClass);
-				if(parentClass==null) continue;
-				for(Class<?> parentInterface:parentClass.getWrappedClass().getInterfaces())
+				L.add(new Link(cw,findByClass(c.getSuperclass()),Relation.SUPER));
+				}
+			if(this.usingInterfaces)
+				{
+				for(Class<?> eInterface:c.getInterfaces())
 					{
-					if(parentInterface==eInterface)
-						{
-						eInterface=null;
-						break;
-						}
+					L.add(new Link(cw,findByClass(eInterface),c.isInterface()?Relation.SUPER:Relation.IMPLEMENTS));
 					}
-				
-				if(eInterface==null) continue;
-				
-				
-				Link L=new Link(cw,cwInterface,
-						(wrappedClass.isInterface()?Relation.SUPER:Relation.IMPLEMENTS));
-				this.links.add(L);
-				nextToBeProcessed.add(cwInterface);
 				}
-			
-			if(usingClassesImplementingInterfaces && wrappedClass.isInterface())
+			}
+		else
+			{
+			/* a link to Object is never created */
+			if(c!=Object.class)
 				{
-				for(ClassWrapper cw2:this.classes)
+				for(ClassWrapper child:indexed(this.subclassesOf,c))
 					{
-					for(Class<?> eInterface:cw2.getWrappedClass().getInterfaces())
-						{
-						if(eInterface==wrappedClass)
-							{
-							Link L=new Link(cw2,cw,Relation.IMPLEMENTS);
-							this.links.add(L);
-							nextToBeProcessed.add(cw2);
-							}
-						}
+					L.add(new Link(child,cw,Relation.SUPER));
 					}
 				}
-			
-			if(this.useMethodReturnType || this.useMethodArguments)
+			if(this.usingInterfaces)
 				{
-				for(Method method:cw.getWrappedClass().getDeclaredMethods())
+				for(ClassWrapper cw2:indexed(this.implementorsOf,c))
 					{
-					if(method.getName().contains("$")) continue;
-					if(Modifier.isPrivate(method.getModifiers())) continue;
-					for(int step=0;step<2;++step)
-						{
-						HashSet<Class<?>> classesInvolved1=new HashSet<Class<?>>();
-						
-						if(step==0 && this.useMethodReturnType)
-							{
-							classesInvolved1.add(method.getReturnType());
-							}
-						if(step==1 && this.useMethodArguments)
-							{
-							classesInvolved1.addAll(Arrays.asList(method.getParameterTypes()));
-							}
-						else
-							{
-							continue;
-							}
-						
-						for(Class<?> clazz: classesInvolved1)
-							{
-							if(clazz.isArray())
-								{
-								clazz=clazz.getComponentType();
-								}
-							if(clazz.isPrimitive() || clazz==String.class) continue;
-							
-							if(clazz==Object.class) continue;
-							if(clazz==Short.class) continue;
-							if(clazz==Integer.class) continue;
-							if(clazz==Long.class) continue;
-							if(clazz==Byte.class) continue;
-							if(clazz==Boolean.class) continue;
-							if(clazz.getPackage()!=null)
-								{
-								if(clazz.getPackage().getName().startsWith("java.")) continue;
-								if(clazz.getPackage().getName().startsWith("javax.")) continue;
-								}
-							ClassWrapper cw2=findByClass(clazz);
-							if(cw2==null) continue;
-							Link L=new Link(cw,cw2,
-									step==0?Relation.RETURNS:Relation.ARGUMENT
-									);
-							L.getMethods().add((Modifier.isStatic(method.getModifiers())?"*":"")+method.getName());
-							this.links.add(L);
-							nextToBeProcessed.add(cw2);
-							}
-						}
-					
+					L.add(new Link(cw2,cw,cw2.isInterface()?Relation.SUPER:Relation.IMPLEMENTS));
 					}
 				}
-			
 			}
-		
-		if(usingDeclaredClasses)
+		List<Link> accepted=new ArrayList<Link>(L.size());
+		for(Link link:L)
 			{
-			Class<?> subclasses[];
-			
-			if(usePrivateDeclaredClasses)
+			if(!link.hasRelation(relations)) continue;
+			if(!isAccepted(forward?link.getTo():link.getFrom())) continue;
+			accepted.add(link);
+			}
+		return accepted;
+		}
+	
+	/** runs the --path or the --reachable-from query: only the classes and the links of the result are kept. returns 1 if there is no path */
+	private int query()
+		{
+		ClassWrapper source=findQueryClass(this.querySource);
+		ClassWrapper target=(this.queryTarget==null?null:findQueryClass(this.queryTarget));
+		if(source==null || (this.queryTarget!=null && target==null))
+			{
+			System.err.println("Cannot find class "+(source==null?this.querySource:this.queryTarget));
+			return 1;
+			}
+		final Set<Relation> relations=(this.queryRelations.isEmpty()?EnumSet.allOf(Relation.class):this.queryRelations);
+		/* the incoming links can only be found for the hierarchy: a backward search is possible */
+		final boolean hierarchyOnly=EnumSet.of(Relation.SUPER,Relation.IMPLEMENTS).containsAll(relations);
+		GraphQuery q;
+		if(this.graphFile!=null)
+			{
+			/* all the links of the file are known: a backward search is possible */
+			q=new GraphQuery(new GraphQuery.Expander()
 				{
-				subclasses=wrappedClass.getDeclaredClasses();
-				}
-			else
+				@Override
+				public List<Link> outgoing(ClassWrapper cw)
+					{
+					return fileLinks(cw,true,relations);
+					}
+				@Override
+				public List<Link> incoming(ClassWrapper cw)
+					{
+					return fileLinks(cw,false,relations);
+					}
+				},true);
+			}
+		else
+			{
+			q=new GraphQuery(new GraphQuery.Expander()
 				{
-				try
+				@Override
+				public List<Link> outgoing(ClassWrapper cw)
 					{
-					subclasses=wrappedClass.getClasses();
+					return queryLinks(cw,true,hierarchyOnly,relations);
 					}
-				catch(Throwable err)
+				@Override
+				public List<Link> incoming(ClassWrapper cw)
 					{
-					subclasses=new Class[0];
-					}	
+					return queryLinks(cw,false,hierarchyOnly,relations);
+					}
+				},hierarchyOnly);
+			}
+		Set<Link> result;
+		if(target==null)
+			{
+			result=q.reachable(source,this.limitDistance);
+			}
+		else
+			{
+			result=q.shortestPaths(source,target,this.limitDistance);
+			if(result==null)
+				{
+				System.err.println("No path from "+source+" to "+target);
 				}
-			for(Class<?> d:subclasses)
+			}
+		LOG.info("query expanded "+q.getCountExpanded()+" classes");
+		
+		source.userTarget=true;
+		if(target!=null) target.userTarget=true;
+		for(Map.Entry<ClassWrapper,Integer> e:q.getDistances().entrySet())
+			{
+			ClassWrapper cw=e.getKey();
+			cw.setVisited(true);
+			cw.distancdeToUserTarget=e.getValue();
+			streamClass(cw);
+			}
+		if(result==null) return 1;
+		for(Link L:result)
+			{
+			this.addLink(L);
+			}
+		return 0;
+		}
+	
+	/** prints the types that could not be resolved to stderr, and forgets them */
+	private void reportMissingTypes()
+		{
+		if(this.missingTypes.isEmpty()) return;
+		this.missingTypes.print(System.err);
+		this.missingTypes.clear();
+		}
+	
+	/** finds a class of a query, in the classpath or in the binary graph file */
+	private ClassWrapper findQueryClass(String name)
+		{
+		if(this.graphFile==null) return findByName(name);
+		int node=this.graphFile.findNode(name);
+		return node==-1?null:fileClass(node);
+		}
+	
+	/** --convert: maps the binary graph file */
+	private void openGraphFile() throws IOException
+		{
+		this.graphFile=new GraphFile(this.convertFile);
+		this.fileClasses=new ClassWrapper[this.graphFile.getNodeCount()];
+		this.fileDiscarded=new boolean[this.graphFile.getNodeCount()];
+		this.fileSymbols=new int[this.graphFile.getStringCount()];
+		Arrays.fill(this.fileSymbols, -1);
+		this.fileNodeIndex.clear();
+		}
+	
+	/** symbol of a string of the binary graph file */
+	private int fileSymbol(int handle)
+		{
+		if(this.fileSymbols[handle]==-1)
+			{
+			int sym=this.symbols.intern(this.graphFile.getString(handle));
+			this.fileSymbols[handle]=sym;
+			}
+		return this.fileSymbols[handle];
+		}
+	
+	/** the class of a node of the binary graph file, null if it is discarded by the filters */
+	private ClassWrapper fileClass(int node)
+		{
+		if(this.fileDiscarded[node]) return null;
+		ClassWrapper cw=this.fileClasses[node];
+		if(cw!=null) return cw;
+		GraphFile g=this.graphFile;
+		cw=new ClassWrapper(this.symbols,fileSymbol(g.getNameHandle(node)),g.isInterface(node),g.getString(g.getJarHandle(node)));
+		if(!isAccepted(cw))
+			{
+			this.fileDiscarded[node]=true;
+			return null;
+			}
+		this.fileClasses[node]=cw;
+		this.fileNodeIndex.put(cw, node);
+		this.addClass(cw);
+		return cw;
+		}
+	
+	/** the links of these relations starting from (forward) or ending to a class of the binary graph file */
+	private List<Link> fileLinks(ClassWrapper cw,boolean forward,Set<Relation> relations)
+		{
+		GraphFile g=this.graphFile;
+		int node=this.fileNodeIndex.get(cw);
+		List<Link> L=new ArrayList<Link>();
+		/* an edge is stored with its first relation, the relations merged into it may be the ones requested */
+		for(Relation r:Relation.values())
+			{
+			int start=(forward?g.getEdgeStart(r, node):g.getIncomingStart(r, node));
+			int end=(forward?g.getEdgeEnd(r, node):g.getIncomingEnd(r, node));
+			for(int i=start;i< end;++i)
 				{
-				ClassWrapper cw2= findByClass(d);
-				if(cw2!=null)
+				int e=(forward?i:g.getIncomingEdge(r, i));
+				ClassWrapper other=fileClass(forward?g.getEdgeTarget(r, e):g.getIncomingSource(r, i));
+				if(other==null) continue;
+				Link link=(forward?new Link(cw,other,r):new Link(other,cw,r));
+				link.addRelations(g.getEdgeRelations(r, e));
+				if(!link.hasRelation(relations)) continue;
+				for(int j=0;j< g.getMethodCount(r, e);++j)
 					{
-					this.links.add(new Link(cw,cw2,Relation.DECLARES));
-					nextToBeProcessed.add(cw2);
+					link.addMethod(fileSymbol(g.getMethodHandle(r, e, j)));
 					}
+				L.add(link);
 				}
 			}
-		
-		for(ClassWrapper child: this.classes)
+		return L;
+		}
+	
+	/** --convert: reads all the classes and the links of the binary graph file */
+	private void loadGraphFile()
+		{
+		GraphFile g=this.graphFile;
+		for(int node=0;node< g.getNodeCount();++node)
 			{
-			Class<?> parentClass3= child.getWrappedClass().getSuperclass();
-			if(parentClass3==null) continue;
-			
-			if(parentClass3!=wrappedClass)
+			ClassWrapper cw=fileClass(node);
+			if(cw==null) continue;
+			int distance=g.getDistance(node);
+			cw.setVisited(true);
+			cw.userTarget=g.isUserTarget(node);
+			cw.distancdeToUserTarget=(distance==-1?Integer.MAX_VALUE:distance);
+			streamClass(cw);
+			}
+		Set<Relation> relations=EnumSet.allOf(Relation.class);
+		for(int node=0;node< g.getNodeCount();++node)
+			{
+			ClassWrapper cw=fileClass(node);
+			if(cw==null) continue;
+			for(Link L:fileLinks(cw,true,relations))
 				{
-				continue;
+				this.addLink(L);
 				}
-			LOG.info("parent of "+child+" is "+parentClass3);
-			ClassWrapper cw3= findByClass(parentClass3);
-			if(cw3!=null)
+			}
+		this.truncated=g.getTruncated();
+		}
+	
+	/** scans the classpath, runs the traversal and prints the graph. The output file
+	 * is written in a temporary file and only replaced if the graph was completely written */
+	private int runOnce(File output) throws Exception
+		{
+	    PrintStream out= System.out;
+	    File tmpFile=null;
+	    if(output!=null)
+	    	{
+	    	tmpFile=new File(output.getAbsoluteFile().getParentFile(),"."+output.getName()+".tmp");
+	    	out= new PrintStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+	    	}
+	    int status;
+	    boolean done=false;
+	    try
+	    	{
+		    graphPrinter.begin(out);
+		    status=this.buildGraph();
+			if(this.cyclesOutput!=null)
 				{
-				Link L=new Link(child,cw,Relation.SUPER);
-				this.links.add(L);
-				nextToBeProcessed.add(child);
+				int cycleStatus=this.findCycles();
+				if(status==0) status=cycleStatus;
 				}
+		    graphPrinter.print(out);
+		    out.flush();
+		    done=true;
+	    	}
+	    finally
+	    	{
+	    	if(tmpFile!=null)
+	    		{
+	    		out.close();
+	    		if(!done) tmpFile.delete();
+	    		}
+	    	/* deletes the temporary files of the links */
+	    	this.links.clear();
+	    	}
+	    if(tmpFile!=null)
+	    	{
+	    	Files.move(tmpFile.toPath(), output.getAbsoluteFile().toPath(), StandardCopyOption.ATOMIC_MOVE);
+	    	}
+	    return status;
+		}
+	
+	/** scans the classpath, runs the traversal or the query. returns a non-zero status if the query failed */
+	private int buildGraph() throws Exception
+		{
+		this.files.clear();
+		this.directories.clear();
+		for(File f:this.classpath)
+			{
+			this.addFile(f);
 			}
-		for(ClassWrapper cw2:nextToBeProcessed)
+		this.clearClasses();
+		this.links.clear();
+		if(this.aggregatedLinks!=null) this.aggregatedLinks=new LongHashSet();
+		this.streamedClasses.clear();
+		this.pendingLinks.clear();
+		this.cycleFinder=null;
+		this.truncated=null;
+		this.deadline=(this.deadlineMillis>0L?System.currentTimeMillis()+this.deadlineMillis:-1L);
+		int status=0;
+		if(this.convertFile!=null)
 			{
-			recursive(cw2,distance+1);
+			this.openGraphFile();
+			if(this.querySource!=null)
+				{
+				status=this.query();
+				}
+			else
+				{
+				this.loadGraphFile();
+				}
+			this.graphFile=null;
 			}
-		}
-	
-	private void run(HashSet<String> setOfClasses) throws IOException
+		else if(this.querySource!=null)
 			{
-			LOG.info("run for "+setOfClasses);
-				
-			ArrayList<URL> urls=new ArrayList<URL>();
-			for(File f:this.files)
-			 	{
-				urls.add(f.toURI().toURL()); 
-			 	}
-			    
-			/* setup class loaded */
-		    URLClassLoader cl= new URLClassLoader(
-		    		urls.toArray(new URL[urls.size()]),
-		    		ClassLoader.getSystemClassLoader()
-		    		);
-		   
-		    
-		    //loop over each file
-		    for(File f:this.files)
+			this.scan();
+			status=this.query();
+			}
+		else
+			{
+		    HashSet<String> setOfClasses=new HashSet<String>();
+		    for(String filename:this.userTargets)
 		    	{
-		    	LOG.info("Scanning "+f);
-		    	JarFile jf= new JarFile(f);
-		    	Enumeration<JarEntry> e=jf.entries();
-		    	//loop over each entry of this jar file
-		    	while(e.hasMoreElements())
+		    	if(filename.endsWith(".jar"))
 		    		{
-		    		JarEntry je=e.nextElement();
-		    		if(!je.getName().endsWith(".class")) continue;
-		    		
-		    		String className=je.getName();
-		    		className=className.substring(0,className.length()-6);
-		    		className=className.replace('/','.');
-		    		int sub= className.indexOf('$');
-		    		if(sub!=-1 && usingDeclaredClasses==false) continue;
-		    		//ignore anonymous classes
-		    		if(sub!=-1 && Character.isDigit(className.charAt(sub+1))) continue;
-		    		
-		    		if(jf==null) continue;
-		    		try
-			    		{
-			    		Class<?> c=cl.loadClass(className);
-			    		for(Filter<Class<?>> filter:this.discardClassFilters)
-			    			{
-			    			if(!filter.accept(c))
-			    				{
-			    				c=null;
-			    				break;
-			    				}
-			    			}
-			    		if(c==null) continue;
-			    		//System.err.println(c.getName());
-			    		classes.add(new ClassWrapper(c));
-			    		}
-		    		catch(IllegalAccessError err)
-		    			{
-		    			LOG.warning("#cannot access \""+className+"\" message:"+err.getMessage());
-		    			}
-		    		catch(NoClassDefFoundError err)
-		    			{
-		    			LOG.warning("#class def not found : \""+className+"\" message:"+err.getMessage());
-		    			}
-		    		catch(ClassNotFoundException err)
-		    			{
-		    			LOG.warning("#class not found : \""+className+"\" message:"+err.getMessage());
-		    			}
-		    		catch(java.lang.SecurityException err)
-		    			{
-		    			LOG.warning("#class not found : \""+className+"\" message:"+err.getMessage());
-		    			}
+		    		LOG.info("using all classes from "+filename);
+		    		File archiveFile=new File(filename);
+		    		this.addFile(archiveFile);	
+		    		setOfClasses.addAll(getClassNames(archiveFile));
 		    		}
-		    	jf.close();
-		    	}
-		    
-		    for(String x: setOfClasses)
-			    {
-			    ClassWrapper cw=findByName( x );
-			    if(cw==null)
+		    	else 
 			    	{
-			    	System.err.println("Cannot find class "+x);
-			    	continue;
+			    	String className=filename;	
+			    	
+			    	if(className.contains("/"))
+			    		{	
+			    		if(className.endsWith(".java"))
+			    			{	
+			    			className=className.substring(0,className.length()-5);
+			    			}
+			    		className=className.replace('/', '.');
+			    		}
+			    	setOfClasses.add(className);
 			    	}
-			    cw.userTarget=true;
-			    recursive(cw,0);
-			    }
-		    cl.close();
+		    	}
+		   this.run(setOfClasses);
 			}
+			  LOG.info("COUNT(Classes) : "+this.classes.size());
+			  LOG.info("COUNT(LINKS) : "+countLinks());
+			if(this.useTransitiveReduction)
+				{
+				if(this.graphPrinter.isStreaming())
+					{
+					LOG.warning("transitive reduction ignored: links were already streamed");
+					}
+				else
+					{
+					/* a path through a class that is not printed would remove a printed link */
+					Set<Link> redundant=new TransitiveReduction().reduce(getPrintableLinks());
+					/* a link keeps the relations merged into it that are not inheritance */
+					this.links.removeRelations(redundant,TransitiveReduction.INHERITANCE);
+					LOG.info("transitive reduction removed the inheritance of "+redundant.size()+" link(s)");
+					}
+				}
+		return status;
+		}
 	
-	private static final Set<String> COMMON_IGNORE=new HashSet<String>()
-			{{{
-			add("java.lang.Comparable");
-			add("java.util.Comparator");
-			add("java.lang.Enum");
-			add("java.io.Serializable");
-			add("java.io.Closeable");
-			add("java.lang.Cloneable");
-			add("java.lang.Throwable");
-			add("java.lang.Exception");
-			add("java.lang.RuntimeException");
-			}}};
-	
-			
-	private void usage()
+	/** waits for a change in the directories of the classpath and rewrites the output */
+	private void watch(File output) throws Exception
 		{
-		System.err.println("Pierre Lindenbaum PhD. 2014");
-		System.err.println(" -h this screen");
-		System.err.println(" -cp <dir0:jar1:jar2:dir1:...> add a jar in the jar list. If directory, will add all the *ar files");
-		System.err.println(" -r <regex> add a pattern of classes to be ignored. Can be used muliple times");
-		System.err.println(" -R <package name> ignore the package starting with this string. Can be used muliple times");
-		System.err.println(" -i ignore interfaces");
-		System.err.println(" -p use *private* inner classes.");
-		System.err.println(" -m ignore classes iMplementing interfaces");
-		System.err.println(" -d ignore declared-classes (classes with $ in the name)");
-		System.err.println(" -o <file> output file");
-		System.err.println(" -L <level> Log Level. optional");
-		System.err.println(" -G graphviz output");
-		System.err.println(" -D dot output");
-		System.err.println(" -x (int) max distance to classe(s) defined by user. Default: unlimited");
-		System.err.println(" -C ignore common classes: "+COMMON_IGNORE.toString());
-		System.err.println(" -M use methods return type");
-		System.err.println(" -A use methods arguments");
-		System.err.println("\n jar1 class-1  jar 2 jar 3 class-2 ... class-n");
+		WatchService watcher=FileSystems.getDefault().newWatchService();
+		Set<Path> watched=new HashSet<Path>();
+		for(;;)
+			{
+			/* register the directories of the jars: new directories may have been added */
+			Set<File> dirs=new HashSet<File>(this.directories);
+			for(File f:this.files)
+				{
+				if(f.getAbsoluteFile().getParentFile()!=null) dirs.add(f.getAbsoluteFile().getParentFile());
+				}
+			for(File f:this.classpath)
+				{
+				if(f.isDirectory()) dirs.add(f);
+				else if(f.getAbsoluteFile().getParentFile()!=null) dirs.add(f.getAbsoluteFile().getParentFile());
+				}
+			for(File dir:dirs)
+				{
+				Path p=dir.getAbsoluteFile().toPath();
+				if(!watched.add(p)) continue;
+				LOG.info("watching "+p);
+				p.register(watcher,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY,
+					StandardWatchEventKinds.ENTRY_DELETE
+					);
+				}
+			
+			/* the jars of the classpath, and the new jars or directories of the directories of the classpath */
+			Set<File> jars=new HashSet<File>();
+			for(File f:this.files) jars.add(f.getAbsoluteFile());
+			Set<File> jarDirs=new HashSet<File>();
+			for(File f:this.directories) jarDirs.add(f.getAbsoluteFile());
+			
+			/* wait for a change, then for the end of the burst of events (a jar is often written in several steps) */
+			WatchKey key=watcher.take();
+			boolean changed=false;
+			while(key!=null)
+				{
+				for(WatchEvent<?> evt:key.pollEvents())
+					{
+					Object ctx=evt.context();
+					if(ctx==null)
+						{
+						changed=true;
+						continue;
+						}
+					File f=Path.class.cast(key.watchable()).resolve(ctx.toString()).toFile().getAbsoluteFile();
+					if(jars.contains(f) || jarDirs.contains(f) ||
+						(jarDirs.contains(f.getParentFile()) && (f.getName().endsWith(".jar") || f.isDirectory())))
+						{
+						changed=true;
+						}
+					}
+				if(!key.reset())
+					{
+					watched.remove(key.watchable());
+					}
+				key=watcher.poll(300L,TimeUnit.MILLISECONDS);
+				}
+			if(!changed) continue;
+			long start=System.currentTimeMillis();
+			/* a broken or half-written jar must not stop the watch: the next change triggers a new build */
+			try
+				{
+				this.runOnce(output);
+				this.reportMissingTypes();
+				}
+			catch(Exception err)
+				{
+				System.err.println("["+new java.util.Date()+"] cannot update "+output);
+				err.printStackTrace();
+				continue;
+				}
+			System.err.println("["+new java.util.Date()+"] "+output+" updated in "+(System.currentTimeMillis()-start)+" ms");
+			}
 		}
 	
-	private static class FilterIgnore
-	implements Filter<Class<?>>
+	/** the classes to be printed */
+	private List<ClassWrapper> getPrintableClasses()
 		{
-		String name;
-		FilterIgnore(String name)
+		List<ClassWrapper> L=new ArrayList<ClassWrapper>();
+		for(ClassWrapper c:this.classes)
 			{
-			this.name=name;
-			}
-		@Override
-		public boolean accept(Class<?> data) {
-			return !data.getName().equals(name);
+			if(isPrintable(c)) L.add(c);
 			}
+		return L;
 		}
-
 	
-	private static class FilterIgnorePackageStartingWith
-		implements Filter<Class<?>>
+	/** the links to be printed */
+	private List<Link> getPrintableLinks()
 		{
-		String prefix;
-		FilterIgnorePackageStartingWith(String prefix)
+		List<Link> L=new ArrayList<Link>();
+		for(Link link:this.links)
 			{
-			this.prefix=prefix;
+			if(isPrintable(link)) L.add(link);
 			}
-		@Override
-		public boolean accept(Class<?> data) {
-			return !data.getName().startsWith(prefix);
+		return L;
+		}
+	
+	/** --diff-cp: the targets for this previous classpath. A '.jar' target is a jar of the current
+	 * classpath: it is replaced by the jar with the same name in this classpath or, if there is none,
+	 * by the names of its classes. The jar itself is never scanned with this classpath. */
+	private List<String> previousTargets(List<String> targets) throws IOException
+		{
+		this.files.clear();
+		this.directories.clear();
+		for(File f:this.classpath) this.addFile(f);
+		List<String> L=new ArrayList<String>();
+		for(String target:targets)
+			{
+			if(!target.endsWith(".jar"))
+				{
+				L.add(target);
+				continue;
+				}
+			String name=new File(target).getName();
+			File sameName=null;
+			for(File f:this.files)
+				{
+				if(!f.getName().equals(name)) continue;
+				sameName=f;
+				break;
+				}
+			if(sameName!=null)
+				{
+				LOG.info("previous classpath: using "+sameName+" for "+target);
+				L.add(sameName.getPath());
+				}
+			else
+				{
+				L.addAll(getClassNames(new File(target)));
+				}
 			}
+		return L;
 		}
 	
-	private static class FilterIgnoreRegex
-	implements Filter<Class<?>>
+	/** builds the graphs of the previous (--diff-cp) and of the current classpath, prints the differences */
+	private int runDiff(String[] args) throws Exception
 		{
-		Pattern regex;
-		FilterIgnoreRegex(Pattern regex)
+		final Java2Graph previous=new Java2Graph();
+		previous.parseOptions(args);
+		previous.classpath=new ArrayList<File>(this.diffClasspath);
+		previous.diffClasspath.clear();
+		previous.userTargets=previous.previousTargets(this.userTargets);
+		previous.missingTypes=this.missingTypes;
+		
+		/* both graphs are built in parallel */
+		GraphDiff diff;
+		ExecutorService executor=Executors.newFixedThreadPool(2);
+		try
 			{
-			this.regex=regex;
+			List<Future<Void>> futures=new ArrayList<Future<Void>>();
+			for(final Java2Graph app:new Java2Graph[]{previous,this})
+				{
+				futures.add(executor.submit(new Callable<Void>()
+					{
+					@Override
+					public Void call() throws Exception
+						{
+						app.buildGraph();
+						return null;
+						}
+					}));
+				}
+			executor.shutdown();
+			for(Future<Void> f:futures) f.get();
+			
+			diff=new GraphDiff(
+				previous.getPrintableClasses(),previous.getPrintableLinks(),
+				this.getPrintableClasses(),this.getPrintableLinks()
+				);
 			}
-		@Override
-		public boolean accept(Class<?> data) {
-			return !regex.matcher(data.getName()).matches();
+		finally
+			{
+			/* waits for the other graph if one failed, deletes the temporary files of the links */
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			previous.links.clear();
+			this.links.clear();
 			}
+		LOG.info("diff: "+diff.getCounts());
+		
+	    PrintStream out= System.out;
+	    if(this.outputFile!=null)
+	    	{
+	    	out= new PrintStream(new BufferedOutputStream(new FileOutputStream(this.outputFile)));
+	    	}
+	    if(this.graphPrinter instanceof GexfPrinter)
+	    	{
+	    	diff.printGexf(out);
+	    	}
+	    else
+	    	{
+	    	diff.printDot(out);
+	    	}
+	    out.flush();
+	    if(this.outputFile!=null) out.close();
+	    
+	    if(this.diffSummary!=null)
+	    	{
+	    	PrintStream summary=(this.diffSummary.equals("-")?System.err:new PrintStream(new File(this.diffSummary)));
+	    	diff.printSummary(summary);
+	    	if(summary!=System.err) summary.close();
+	    	}
+	    else
+	    	{
+	    	System.err.println(diff.getCounts());
+	    	}
+		return 0;
 		}
-
-
 	
+	/** parses a duration: '1500ms', '30s', '5m', '2h'. No unit: seconds */
+	private static long parseDuration(String s)
+		{
+		s=s.trim().toLowerCase();
+		long factor=1000L;
+		if(s.endsWith("ms")) { factor=1L; s=s.substring(0,s.length()-2);}
+		else if(s.endsWith("s")) { factor=1000L; s=s.substring(0,s.length()-1);}
+		else if(s.endsWith("m")) { factor=60L*1000L; s=s.substring(0,s.length()-1);}
+		else if(s.endsWith("h")) { factor=3600L*1000L; s=s.substring(0,s.length()-1);}
+		return Long.parseLong(s.trim())*factor;
+		}
 	
-	/** main loop */
-	private void run(String[] args)
+	/** parses the options, returns the index of the first class/jar, or -1 if the program should stop */
+	private int parseOptions(String[] args) throws IOException
 		{
-		try {
-			/** parse command line */
 			int optind=0;
-			File output=null;
 		    while(optind<args.length)
 				{
 				if(args[optind].equals("-h"))
 					{
 					usage();
-					return;
+					return -1;
 					}
 				else if (args[optind].equals("-G"))
 					{
@@ -947,10 +2549,105 @@ public class Java2Graph
 					{
 					this.useMethodArguments=true;
 					}
+				else if (args[optind].equals("--cycles") && optind+1 < args.length)
+					{
+					this.cyclesOutput=args[++optind];
+					}
+				else if (args[optind].equals("--cycle-level") && optind+1 < args.length)
+					{
+					this.cycleLevel=CycleFinder.Level.valueOf(args[++optind].toUpperCase());
+					}
+				else if (args[optind].equals("--cycle-relations") && optind+1 < args.length)
+					{
+					for(String r:args[++optind].split("[,]"))
+						{
+						if(r.trim().isEmpty()) continue;
+						this.cycleRelations.add(Relation.valueOf(r.trim().toUpperCase()));
+						}
+					}
+				else if (args[optind].equals("--fail-on-cycles") && optind+1 < args.length)
+					{
+					this.failOnCyclesIn.add(args[++optind]);
+					if(this.cyclesOutput==null) this.cyclesOutput="-";
+					}
+				else if (args[optind].equals("--aggregate") && optind+1 < args.length)
+					{
+					this.aggregateLevel=AggregateLevel.valueOf(args[++optind].toUpperCase());
+					}
+				else if (args[optind].equals("-W"))
+					{
+					this.watchClasspath=true;
+					}
+				else if (args[optind].equals("--links-in-memory") && optind+1 < args.length)
+					{
+					this.maxLinksInMemory=Integer.parseInt(args[++optind]);
+					}
+				else if (args[optind].equals("--tmp-dir") && optind+1 < args.length)
+					{
+					this.tmpDir=new File(args[++optind]);
+					}
+				else if (args[optind].equals("--path") && optind+2 < args.length)
+					{
+					this.querySource=args[++optind];
+					this.queryTarget=args[++optind];
+					}
+				else if (args[optind].equals("--reachable-from") && optind+1 < args.length)
+					{
+					this.querySource=args[++optind];
+					this.queryTarget=null;
+					}
+				else if (args[optind].equals("--relations") && optind+1 < args.length)
+					{
+					for(String rel:args[++optind].split("[,]"))
+						{
+						if(rel.trim().isEmpty()) continue;
+						this.queryRelations.add(Relation.valueOf(rel.trim().toUpperCase()));
+						}
+					}
+				else if (args[optind].equals("--max-nodes") && optind+1 < args.length)
+					{
+					this.maxNodes=Long.parseLong(args[++optind]);
+					}
+				else if (args[optind].equals("--max-edges") && optind+1 < args.length)
+					{
+					this.maxEdges=Long.parseLong(args[++optind]);
+					}
+				else if (args[optind].equals("--deadline") && optind+1 < args.length)
+					{
+					this.deadlineMillis=parseDuration(args[++optind]);
+					}
+				else if (args[optind].equals("--progress") && optind+1 < args.length)
+					{
+					this.progressSeconds=Integer.parseInt(args[++optind]);
+					}
+				else if (args[optind].equals("--batch") && optind+1 < args.length)
+					{
+					this.batchFile=new File(args[++optind]);
+					}
+				else if (args[optind].equals("-T"))
+					{
+					this.useTransitiveReduction=true;
+					}
 				else if (args[optind].equals("-D"))
 					{
 					this.graphPrinter=new DotGraphPrinter();
 					}
+				else if (args[optind].equals("-S"))
+					{
+					this.graphPrinter=new SvgPrinter();
+					}
+				else if (args[optind].equals("-J"))
+					{
+					this.graphPrinter=new NdjsonPrinter();
+					}
+				else if (args[optind].equals("-B"))
+					{
+					this.graphPrinter=new BinaryPrinter();
+					}
+				else if (args[optind].equals("--convert") && optind+1 < args.length)
+					{
+					this.convertFile=new File(args[++optind]);
+					}
 				else if (args[optind].equals("-cp") && optind+1< args.length)
 					{
 					String tokens[]=args[++optind].split("[:]");
@@ -958,9 +2655,7 @@ public class Java2Graph
 						{
 						s=s.trim();
 						if(s.length()==0) continue;
-						File file= new File(s);
-						
-						this.addFile(file);	
+						this.classpath.add(new File(s));
 						}
 					}
 				else if (args[optind].equals("-L") && optind+1 < args.length)
@@ -986,7 +2681,21 @@ public class Java2Graph
 					}
 				else if (args[optind].equals("-o"))
 					{
-					output=new File(args[++optind]);
+					this.outputFile=new File(args[++optind]);
+					}
+				else if (args[optind].equals("--diff-cp") && optind+1< args.length)
+					{
+					String tokens[]=args[++optind].split("[:]");
+					for(String s:tokens)
+						{
+						s=s.trim();
+						if(s.length()==0) continue;
+						this.diffClasspath.add(new File(s));
+						}
+					}
+				else if (args[optind].equals("--diff-summary") && optind+1< args.length)
+					{
+					this.diffSummary=args[++optind];
 					}
 				else if (args[optind].equals("-i"))
 					{
@@ -1020,77 +2729,226 @@ public class Java2Graph
 				     }
 				++optind;
 				}
-		    if(optind==args.length)
+		    /* the relations of the query need the methods */
+		    if(this.queryRelations.contains(Relation.RETURNS)) this.useMethodReturnType=true;
+		    if(this.queryRelations.contains(Relation.ARGUMENT)) this.useMethodArguments=true;
+		    if(this.maxLinksInMemory>0)
 		    	{
-		    	System.err.println("classes missing");
-		    	usage();
-		    	return;
+		    	this.links=new SpillingLinkStore(this.maxLinksInMemory,this.tmpDir);
 		    	}
-		    HashSet<String> setOfClasses=new HashSet<String>();
-		    while(optind< args.length)
+		    return optind;
+		}
+	
+	/** checks the options, sets up the printer, collects the classes of the user. returns false on error */
+	private boolean prepare(String[] args,int optind)
+		{
+	    if(this.aggregateLevel!=null)
+	    	{
+	    	if(this.graphPrinter instanceof NdjsonPrinter || this.graphPrinter instanceof SvgPrinter || this.graphPrinter instanceof BinaryPrinter)
+	    		{
+	    		System.err.println("--aggregate cannot be used with -J, -S or -B");
+	    		return false;
+	    		}
+	    	this.graphPrinter=new AggregatePrinter(this.aggregateLevel,this.graphPrinter instanceof GexfPrinter);
+	    	/* the links are not stored, unless the cycles or the diff need them */
+	    	if(this.cyclesOutput==null && this.diffClasspath.isEmpty()) this.aggregatedLinks=new LongHashSet();
+	    	}
+	    /* a streaming printer needs the duplicate links to be found when they are added, not when the runs are merged */
+	    if(this.maxLinksInMemory>0 && this.graphPrinter.isStreaming() && this.aggregatedLinks==null)
+	    	{
+	    	System.err.println("--links-in-memory cannot be used with -J, nor with --aggregate and --cycles or --diff-cp");
+	    	return false;
+	    	}
+	    if(this.convertFile!=null)
+	    	{
+	    	if(optind!=args.length)
+	    		{
+	    		System.err.println("--convert: the classes are read from "+this.convertFile);
+	    		return false;
+	    		}
+	    	if(this.watchClasspath || !this.diffClasspath.isEmpty())
+	    		{
+	    		System.err.println("--convert cannot be used with -W or --diff-cp");
+	    		return false;
+	    		}
+	    	}
+	    else if(optind==args.length && this.querySource==null)
+	    	{
+	    	System.err.println("classes missing");
+	    	usage();
+	    	return false;
+	    	}
+	    while(optind< args.length)
+	    	{
+	    	this.userTargets.add(args[optind++]);
+	    	}
+	    return true;
+		}
+	
+	/**
+	 * batch mode: each line of the batch file holds the options, the output and the classes of a job.
+	 * The classpath is loaded once, then the jobs run in a thread pool, each one with its own graph.
+	 */
+	private int runBatch(String[] args) throws Exception
+		{
+		/* the options of the command line, but --batch, are shared by the jobs */
+		List<String> common=new ArrayList<String>();
+		for(int i=0;i< args.length;++i)
+			{
+			if(args[i].equals("--batch")) { ++i; continue;}
+			common.add(args[i]);
+			}
+		
+		/* parse all the jobs before the scan */
+		final List<Java2Graph> jobs=new ArrayList<Java2Graph>();
+		final List<String> jobNames=new ArrayList<String>();
+		BufferedReader in=new BufferedReader(new FileReader(this.batchFile));
+		String line;
+		int nLine=0;
+		while((line=in.readLine())!=null)
+			{
+			++nLine;
+			line=line.trim();
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			String jobName=this.batchFile+":"+nLine;
+			List<String> jobArgs=new ArrayList<String>(common);
+			jobArgs.addAll(Arrays.asList(line.split("[ \t]+")));
+			String array[]=jobArgs.toArray(new String[jobArgs.size()]);
+			Java2Graph job=new Java2Graph();
+			int optind=job.parseOptions(array);
+			if(optind< 0 || !job.prepare(array, optind))
+				{
+				in.close();
+				System.err.println("bad job "+jobName);
+				return -1;
+				}
+			if(!job.classpath.equals(this.classpath) || job.batchFile!=null ||
+				job.watchClasspath || !job.diffClasspath.isEmpty())
+				{
+				in.close();
+				System.err.println("job "+jobName+": -cp, --batch, -W and --diff-cp cannot be used in a batch file");
+				return -1;
+				}
+			if(job.outputFile==null)
+				{
+				in.close();
+				System.err.println("job "+jobName+": output file (-o) missing");
+				return -1;
+				}
+			jobs.add(job);
+			jobNames.add(jobName);
+			}
+		in.close();
+		
+		/* load the classes once, they're shared by the jobs */
+		long start=System.currentTimeMillis();
+		this.files.clear();
+		for(File f:this.classpath)
+			{
+			this.addFile(f);
+			}
+		final List<Class<?>> loaded=Collections.unmodifiableList(this.loadClasses(true));
+		final Map<File,MappedJar> sharedJars=Collections.synchronizedMap(this.mappedJars);
+		LOG.info("batch: "+loaded.size()+" classes loaded in "+(System.currentTimeMillis()-start)+" ms");
+		
+		ExecutorService executor=Executors.newFixedThreadPool(Parallel.NTHREADS);
+		List<Future<Integer>> futures=new ArrayList<Future<Integer>>();
+		for(final Java2Graph job:jobs)
+			{
+			job.sharedClasses=loaded;
+			job.mappedJars=sharedJars;
+			job.missingTypes=this.missingTypes;
+			futures.add(executor.submit(new Callable<Integer>()
+				{
+				@Override
+				public Integer call() throws Exception
+					{
+					return job.runOnce(job.outputFile);
+					}
+				}));
+			}
+		executor.shutdown();
+		int status=0;
+		for(int i=0;i< futures.size();++i)
+			{
+			int jobStatus;
+			try
+				{
+				jobStatus=futures.get(i).get();
+				}
+			catch(java.util.concurrent.ExecutionException err)
+				{
+				System.err.println("job "+jobNames.get(i)+" failed");
+				err.getCause().printStackTrace();
+				jobStatus=-1;
+				}
+			if(jobStatus!=0 && status==0) status=jobStatus;
+			}
+		LOG.info("batch: "+jobs.size()+" jobs in "+(System.currentTimeMillis()-start)+" ms");
+		return status;
+		}
+	
+	/** main loop */
+	private int run(String[] args)
+		{
+		try {
+			/** parse command line */
+			int optind=this.parseOptions(args);
+			if(optind< 0) return 0;
+			File output=this.outputFile;
+			if(this.batchFile!=null)
+				{
+				if(optind!=args.length)
+					{
+					System.err.println("--batch: the classes are defined in the batch file");
+					return -1;
+					}
+				int status=this.runBatch(args);
+				this.reportMissingTypes();
+				return status;
+				}
+			if(!this.prepare(args, optind)) return -1;
+		    if(!this.diffClasspath.isEmpty())
 		    	{
-		    	String filename=args[optind++];
-		    	if(filename.endsWith(".jar"))
+		    	if(this.graphPrinter.isStreaming() || this.graphPrinter instanceof SvgPrinter || this.graphPrinter instanceof BinaryPrinter)
 		    		{
-		    		LOG.info("using all classes from "+filename);
-		    		File archiveFile=new File(filename);
-		    		this.addFile(archiveFile);	
-		    		JarInputStream jarFile = new JarInputStream(new FileInputStream(archiveFile));
-		    		JarEntry jarEntry;
-
-    			     while(true) {
-    			       jarEntry=jarFile.getNextJarEntry ();
-    			       if(jarEntry == null){
-    			        break;
-    			       	}
-    			       String entryName=jarEntry.getName();
-    			       if(!entryName.endsWith(".class")) continue;
-    			       entryName=entryName.substring(0,entryName.length()-6);//remove '.class'
-    			       if(entryName.indexOf('-')!=-1) continue; 
-    			       if(entryName.indexOf('$')!=-1) continue;
-    			       entryName=entryName.replace("/", ".");
-    			       setOfClasses.add(entryName);
-    			     	}
-    			     jarFile.close();
+		    		System.err.println("--diff-cp only supports the DOT and GEXF outputs");
+		    		return -1;
 		    		}
-		    	else 
-			    	{
-			    	String className=filename;	
-			    	
-			    	if(className.contains("/"))
-			    		{	
-			    		if(className.endsWith(".java"))
-			    			{	
-			    			className=className.substring(0,className.length()-5);
-			    			}
-			    		className=className.replace('/', '.');
-			    		}
-			    	setOfClasses.add(className);
-			    	}
+		    	int status=this.runDiff(args);
+		    	this.reportMissingTypes();
+		    	return status;
 		    	}
-		   this.run(setOfClasses);
-			  LOG.info("COUNT(Classes) : "+this.classes.size());
-			  LOG.info("COUNT(LINKS) : "+this.links.size());
-
-			  
-		    PrintStream out= System.out;
-		    if(output!=null)
+		    if(this.watchClasspath && output==null)
 		    	{
-		    	out= new PrintStream(output);
+		    	System.err.println("-W requires an output file (-o)");
+		    	return -1;
 		    	}
-		    graphPrinter.print(out);
-		    out.flush();
-		    if(output!=null) out.close();
+		    int status=this.runOnce(output);
+		    this.reportMissingTypes();
+		    if(this.watchClasspath)
+		    	{
+		    	this.watch(output);
+		    	}
+		    return status;
 		} catch (Exception e) {
 			e.printStackTrace();
+			return -1;
 		}
 	}
 
+	/** runs java2graph with those arguments, returns the exit status */
+	static int execute(String[] args)
+		{
+		Java2Graph app=new Java2Graph();
+		return app.run(args);
+		}
+	
 	public static void main(String[] args)
 		{
 		LOG.setLevel(Level.OFF);
-		Java2Graph app=new Java2Graph();
-		app.run(args);
+		int status=execute(args);
+		if(status!=0) System.exit(status);
 		}
 	
 }
\ No newline at end of file
@@ -0,0 +1,549 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Layered (Sugiyama) layout of a mostly acyclic graph: the nodes are
+ * assigned to layers by a longest path, the long edges are split by
+ * dummy nodes, the crossings are reduced by barycenter sweeps and the
+ * nodes are moved toward their neighbours.
+ * @author lindenb
+ *
+ */
+class LayeredLayout
+	{
+	/** horizontal space between two nodes */
+	private static final double H_GAP=20.0;
+	/** vertical space between two layers */
+	private static final double V_GAP=60.0;
+	/** width of a dummy node */
+	private static final double DUMMY_WIDTH=10.0;
+	/** margin around the drawing */
+	private static final double MARGIN=20.0;
+	/** number of barycenter sweeps (alternately down and up) */
+	private static final int SWEEPS=12;
+	/** number of passes for the horizontal coordinates */
+	private static final int X_PASSES=8;
+	
+	/** number of real nodes */
+	private final int nReal;
+	/** size of the nodes, real and dummy */
+	private double width[];
+	private double height[];
+	/** the edges: upper node, lower node */
+	private final List<int[]> edges=new ArrayList<int[]>();
+	/** layer of each node */
+	private int layerOf[];
+	/** the nodes of each layer, in order */
+	private int layers[][];
+	/** position of each node in its layer */
+	private int pos[];
+	/** neighbours of each node in the layer above and below */
+	private int uppers[][];
+	private int lowers[][];
+	/** the dummy nodes of each edge, from the upper to the lower node */
+	private int routes[][];
+	/** coordinates of the center of the nodes */
+	private double x[];
+	private double y[];
+	private double totalWidth=0;
+	private double totalHeight=0;
+	/** crossings of the final ordering */
+	private long crossings=0L;
+	
+	LayeredLayout(double width[],double height[])
+		{
+		this.nReal=width.length;
+		this.width=width.clone();
+		this.height=height.clone();
+		}
+	
+	/** adds an edge: the upper node is placed above the lower node. returns the index of the edge */
+	int addEdge(int upper,int lower)
+		{
+		this.edges.add(new int[]{upper,lower});
+		return this.edges.size()-1;
+		}
+	
+	double getX(int node) { return this.x[node];}
+	double getY(int node) { return this.y[node];}
+	double getWidth() { return this.totalWidth;}
+	double getHeight() { return this.totalHeight;}
+	long getCrossings() { return this.crossings;}
+	int getLayerCount() { return this.layers.length;}
+	
+	/** returns the x/y of the bends of the edge, from its upper to its lower node */
+	double[][] getRoute(int edge)
+		{
+		int r[]=this.routes[edge];
+		double xy[][]=new double[r.length][];
+		for(int i=0;i< r.length;++i)
+			{
+			xy[i]=new double[]{this.x[r[i]],this.y[r[i]]};
+			}
+		return xy;
+		}
+	
+	/** computes the layout */
+	void run()
+		{
+		assignLayers();
+		splitLongEdges();
+		reduceCrossings();
+		assignCoordinates();
+		}
+	
+	/** longest path from the top nodes. The nodes of a cycle are forced, one at a time */
+	private void assignLayers()
+		{
+		int indegree[]=new int[this.nReal];
+		int count[]=new int[this.nReal+1];
+		for(int e[]:this.edges)
+			{
+			if(e[0]==e[1]) continue;
+			indegree[e[1]]++;
+			count[e[0]+1]++;
+			}
+		for(int i=0;i< this.nReal;++i) count[i+1]+=count[i];
+		int down[]=new int[count[this.nReal]];
+		int fill[]=count.clone();
+		for(int e[]:this.edges)
+			{
+			if(e[0]==e[1]) continue;
+			down[fill[e[0]]++]=e[1];
+			}
+		this.layerOf=new int[this.nReal];
+		boolean done[]=new boolean[this.nReal];
+		int queue[]=new int[this.nReal];
+		int head=0,tail=0;
+		for(int i=0;i< this.nReal;++i)
+			{
+			if(indegree[i]==0) queue[tail++]=i;
+			}
+		while(head< this.nReal)
+			{
+			if(head==tail)
+				{
+				/* cycle: force the remaining node with the lowest in-degree */
+				int best=-1;
+				for(int i=0;i< this.nReal;++i)
+					{
+					if(done[i] || indegree[i]==0) continue;
+					if(best==-1 || indegree[i]< indegree[best]) best=i;
+					}
+				indegree[best]=0;
+				queue[tail++]=best;
+				}
+			int u=queue[head++];
+			done[u]=true;
+			for(int k=count[u];k< count[u+1];++k)
+				{
+				int v=down[k];
+				if(done[v]) continue;
+				this.layerOf[v]=Math.max(this.layerOf[v], this.layerOf[u]+1);
+				if(--indegree[v]==0) queue[tail++]=v;
+				}
+			}
+		}
+	
+	/** inserts a dummy node in each layer crossed by an edge, builds the neighbours between adjacent layers */
+	private void splitLongEdges()
+		{
+		List<Integer> dummyLayers=new ArrayList<Integer>();
+		List<int[]> segments=new ArrayList<int[]>();
+		this.routes=new int[this.edges.size()][];
+		for(int i=0;i< this.edges.size();++i)
+			{
+			int e[]=this.edges.get(i);
+			int a=e[0],b=e[1];
+			boolean reversed=false;
+			if(this.layerOf[a]==this.layerOf[b])
+				{
+				this.routes[i]=new int[0];
+				continue;
+				}
+			if(this.layerOf[a]> this.layerOf[b])
+				{
+				int tmp=a;a=b;b=tmp;
+				reversed=true;
+				}
+			int span=this.layerOf[b]-this.layerOf[a];
+			int route[]=new int[span-1];
+			int prev=a;
+			for(int k=0;k< span-1;++k)
+				{
+				int dummy=this.nReal+dummyLayers.size();
+				dummyLayers.add(this.layerOf[a]+k+1);
+				segments.add(new int[]{prev,dummy});
+				route[k]=dummy;
+				prev=dummy;
+				}
+			segments.add(new int[]{prev,b});
+			if(reversed)
+				{
+				for(int k=0;k< route.length/2;++k)
+					{
+					int tmp=route[k];
+					route[k]=route[route.length-1-k];
+					route[route.length-1-k]=tmp;
+					}
+				}
+			this.routes[i]=route;
+			}
+		int n=this.nReal+dummyLayers.size();
+		this.layerOf=Arrays.copyOf(this.layerOf, n);
+		this.width=Arrays.copyOf(this.width, n);
+		this.height=Arrays.copyOf(this.height, n);
+		for(int i=this.nReal;i< n;++i)
+			{
+			this.layerOf[i]=dummyLayers.get(i-this.nReal);
+			this.width[i]=DUMMY_WIDTH;
+			this.height[i]=0;
+			}
+		
+		int nUppers[]=new int[n];
+		int nLowers[]=new int[n];
+		for(int s[]:segments)
+			{
+			nLowers[s[0]]++;
+			nUppers[s[1]]++;
+			}
+		this.uppers=new int[n][];
+		this.lowers=new int[n][];
+		for(int i=0;i< n;++i)
+			{
+			this.uppers[i]=new int[nUppers[i]];
+			this.lowers[i]=new int[nLowers[i]];
+			nUppers[i]=0;
+			nLowers[i]=0;
+			}
+		for(int s[]:segments)
+			{
+			this.lowers[s[0]][nLowers[s[0]]++]=s[1];
+			this.uppers[s[1]][nUppers[s[1]]++]=s[0];
+			}
+		
+		int nLayers=0;
+		int layerSize[]=new int[n+1];
+		for(int i=0;i< n;++i)
+			{
+			nLayers=Math.max(nLayers, this.layerOf[i]+1);
+			layerSize[this.layerOf[i]]++;
+			}
+		this.layers=new int[nLayers][];
+		for(int l=0;l< nLayers;++l)
+			{
+			this.layers[l]=new int[layerSize[l]];
+			layerSize[l]=0;
+			}
+		this.pos=new int[n];
+		for(int i=0;i< n;++i)
+			{
+			int l=this.layerOf[i];
+			this.pos[i]=layerSize[l];
+			this.layers[l][layerSize[l]++]=i;
+			}
+		}
+	
+	/** barycenter sweeps, alternately down and up. The ordering with the fewest crossings is kept */
+	private void reduceCrossings()
+		{
+		long best=countCrossings();
+		int bestLayers[][]=copyLayers();
+		for(int sweep=0;sweep< SWEEPS && best>0L;++sweep)
+			{
+			if(sweep%2==0)
+				{
+				for(int l=1;l< this.layers.length;++l) reorder(l,this.uppers);
+				}
+			else
+				{
+				for(int l=this.layers.length-2;l>=0;--l) reorder(l,this.lowers);
+				}
+			long c=countCrossings();
+			if(c< best)
+				{
+				best=c;
+				bestLayers=copyLayers();
+				}
+			}
+		this.layers=bestLayers;
+		for(int layer[]:this.layers)
+			{
+			for(int i=0;i< layer.length;++i) this.pos[layer[i]]=i;
+			}
+		this.crossings=best;
+		}
+	
+	private int[][] copyLayers()
+		{
+		int copy[][]=new int[this.layers.length][];
+		for(int l=0;l< copy.length;++l) copy[l]=this.layers[l].clone();
+		return copy;
+		}
+	
+	/** sorts the nodes of a layer on the mean position of their neighbours. The barycenters are computed in parallel */
+	private void reorder(int l,final int neighbours[][])
+		{
+		final int layer[]=this.layers[l];
+		final double bary[]=new double[layer.length];
+		Parallel.forEach(layer.length, new Parallel.Body()
+			{
+			@Override
+			public void run(int i)
+				{
+				int nb[]=neighbours[layer[i]];
+				if(nb.length==0)
+					{
+					/* no neighbour: stays where it is */
+					bary[i]=i;
+					return;
+					}
+				double sum=0;
+				for(int v:nb) sum+=pos[v];
+				bary[i]=sum/nb.length;
+				}
+			});
+		Integer order[]=new Integer[layer.length];
+		for(int i=0;i< order.length;++i) order[i]=i;
+		Arrays.sort(order,new Comparator<Integer>()
+			{
+			@Override
+			public int compare(Integer a, Integer b)
+				{
+				int i=Double.compare(bary[a], bary[b]);
+				if(i!=0) return i;
+				return a.compareTo(b);
+				}
+			});
+		int sorted[]=new int[layer.length];
+		for(int i=0;i< order.length;++i)
+			{
+			sorted[i]=layer[order[i]];
+			this.pos[sorted[i]]=i;
+			}
+		this.layers[l]=sorted;
+		}
+	
+	/** counts the crossings between all the pairs of adjacent layers, in parallel */
+	private long countCrossings()
+		{
+		if(this.layers.length< 2) return 0L;
+		final long counts[]=new long[this.layers.length-1];
+		Parallel.forEach(counts.length, new Parallel.Body()
+			{
+			@Override
+			public void run(int l)
+				{
+				counts[l]=countCrossings(l);
+				}
+			});
+		long total=0L;
+		for(long c:counts) total+=c;
+		return total;
+		}
+	
+	/** counts the crossings between layer l and layer l+1: inversions of the lower positions, in the order of the upper positions */
+	private long countCrossings(int l)
+		{
+		int upper[]=this.layers[l];
+		int nLower=this.layers[l+1].length;
+		int nEdges=0;
+		for(int u:upper) nEdges+=this.lowers[u].length;
+		if(nEdges< 2) return 0L;
+		long keys[]=new long[nEdges];
+		int k=0;
+		for(int u:upper)
+			{
+			for(int v:this.lowers[u])
+				{
+				keys[k++]=((long)this.pos[u]<<32) | this.pos[v];
+				}
+			}
+		Arrays.sort(keys);
+		/* Fenwick tree over the lower positions */
+		int tree[]=new int[nLower+1];
+		long crossed=0L;
+		for(int i=0;i< nEdges;++i)
+			{
+			int p=(int)(keys[i] & 0xFFFFFFFFL);
+			/* the edges already seen ending after p are crossed */
+			int before=0;
+			for(int j=p+1;j>0;j-=(j & -j)) before+=tree[j];
+			crossed+=i-before;
+			for(int j=p+1;j<=nLower;j+=(j & -j)) tree[j]++;
+			}
+		return crossed;
+		}
+	
+	/** vertical coordinates from the layers, horizontal coordinates moved toward the neighbours */
+	private void assignCoordinates()
+		{
+		int n=this.layerOf.length;
+		this.x=new double[n];
+		this.y=new double[n];
+		/* the nodes without any link are packed in a grid, below the layers */
+		List<Integer> isolated=new ArrayList<Integer>();
+		for(int l=0;l< this.layers.length;++l)
+			{
+			int count=0;
+			for(int v:this.layers[l])
+				{
+				if(this.uppers[v].length==0 && this.lowers[v].length==0 && this.layers[l].length>1)
+					{
+					isolated.add(v);
+					}
+				else
+					{
+					this.layers[l][count++]=v;
+					}
+				}
+			if(count!=this.layers[l].length) this.layers[l]=Arrays.copyOf(this.layers[l], count);
+			}
+		double top=MARGIN;
+		for(int layer[]:this.layers)
+			{
+			if(layer.length==0) continue;
+			double h=0;
+			for(int v:layer) h=Math.max(h, this.height[v]);
+			double cursor=0;
+			for(int v:layer)
+				{
+				this.y[v]=top+h/2.0;
+				this.x[v]=cursor+this.width[v]/2.0;
+				cursor+=this.width[v]+H_GAP;
+				}
+			top+=h+V_GAP;
+			}
+		
+		for(int pass=0;pass< X_PASSES;++pass)
+			{
+			if(pass%2==0)
+				{
+				for(int l=1;l< this.layers.length;++l) moveToward(this.layers[l],this.uppers);
+				}
+			else
+				{
+				for(int l=this.layers.length-2;l>=0;--l) moveToward(this.layers[l],this.lowers);
+				}
+			}
+		
+		double minX=Double.MAX_VALUE;
+		double maxX=0;
+		for(int layer[]:this.layers)
+			{
+			for(int v:layer)
+				{
+				minX=Math.min(minX, this.x[v]-this.width[v]/2.0);
+				maxX=Math.max(maxX, this.x[v]+this.width[v]/2.0);
+				}
+			}
+		if(minX>maxX)
+			{
+			minX=0;
+			maxX=0;
+			}
+		for(int layer[]:this.layers)
+			{
+			for(int v:layer) this.x[v]+=MARGIN-minX;
+			}
+		
+		/* the grid is at least as wide as the layers, and roughly square */
+		double area=0;
+		for(int v:isolated) area+=(this.width[v]+H_GAP)*(this.height[v]+V_GAP/2.0);
+		double rowWidth=Math.max(maxX-minX, Math.sqrt(area));
+		double cursor=0;
+		double rowHeight=0;
+		for(int v:isolated)
+			{
+			if(cursor>0 && cursor+this.width[v]> rowWidth)
+				{
+				top+=rowHeight+V_GAP/2.0;
+				cursor=0;
+				rowHeight=0;
+				}
+			this.x[v]=MARGIN+cursor+this.width[v]/2.0;
+			this.y[v]=top+this.height[v]/2.0;
+			cursor+=this.width[v]+H_GAP;
+			rowHeight=Math.max(rowHeight, this.height[v]);
+			maxX=Math.max(maxX, minX+cursor-H_GAP);
+			}
+		if(!isolated.isEmpty()) top+=rowHeight+V_GAP;
+		this.totalWidth=(maxX-minX)+2*MARGIN;
+		this.totalHeight=top-V_GAP+MARGIN;
+		}
+	
+	/** moves the nodes of a layer toward the mean x of their neighbours, keeping the order and the gaps */
+	private void moveToward(final int layer[],final int neighbours[][])
+		{
+		if(layer.length==0) return;
+		final double wanted[]=new double[layer.length];
+		Parallel.forEach(layer.length, new Parallel.Body()
+			{
+			@Override
+			public void run(int i)
+				{
+				int nb[]=neighbours[layer[i]];
+				if(nb.length==0)
+					{
+					wanted[i]=x[layer[i]];
+					return;
+					}
+				double sum=0;
+				for(int v:nb) sum+=x[v];
+				wanted[i]=sum/nb.length;
+				}
+			});
+		/* left to right: no overlap, then right to left: no overlap, the mean of both */
+		double left[]=new double[layer.length];
+		double right[]=new double[layer.length];
+		for(int i=0;i< layer.length;++i)
+			{
+			left[i]=wanted[i];
+			if(i>0) left[i]=Math.max(left[i], left[i-1]+separation(layer[i-1],layer[i]));
+			}
+		for(int i=layer.length-1;i>=0;--i)
+			{
+			right[i]=wanted[i];
+			if(i+1< layer.length) right[i]=Math.min(right[i], right[i+1]-separation(layer[i],layer[i+1]));
+			}
+		for(int i=0;i< layer.length;++i)
+			{
+			double v=(left[i]+right[i])/2.0;
+			if(i>0) v=Math.max(v, this.x[layer[i-1]]+separation(layer[i-1],layer[i]));
+			this.x[layer[i]]=v;
+			}
+		}
+	
+	/** min distance between the centers of two neighbours in a layer */
+	private double separation(int a,int b)
+		{
+		return (this.width[a]+this.width[b])/2.0+H_GAP;
+		}
+	}
@@ -0,0 +1,197 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Defines a Link between to classes
+ * @author lindenb
+ *
+ */
+class Link
+	{
+	private ClassWrapper from;
+	private ClassWrapper to;
+	private Relation label;
+	/** the relations of this link and of the links merged into it, one bit per Relation */
+	private int relations;
+	/** symbols of the names of the methods, in the order of the names */
+	private int methods[]=null;
+	private int countMethods=0;
+	Link(ClassWrapper from,ClassWrapper to,Relation label)
+		{
+		this.from=from;
+		this.to=to;
+		this.label=label;
+		this.relations=1<<label.ordinal();
+		}
+	
+	public ClassWrapper getFrom()
+		{
+		return from;
+		}
+	
+	public ClassWrapper getTo()
+		{
+		return to;
+		}
+	
+	/** does this link carry some method names ? */
+	boolean hasMethods()
+		{
+		return this.countMethods>0;
+		}
+	
+	/** the names of the graph */
+	SymbolTable getSymbols()
+		{
+		return this.from.getSymbols();
+		}
+	
+	int getMethodCount()
+		{
+		return this.countMethods;
+		}
+	
+	/** symbol of the name of the i-th method */
+	int getMethodSymbol(int i)
+		{
+		return this.methods[i];
+		}
+	
+	/** adds the symbol of the name of a method, keeps the names sorted */
+	void addMethod(int symbol)
+		{
+		SymbolTable symbols=getSymbols();
+		int lo=0;
+		int hi=this.countMethods;
+		while(lo< hi)
+			{
+			int mid=(lo+hi)>>>1;
+			int c=symbols.compare(this.methods[mid], symbol);
+			if(c==0) return;
+			if(c< 0) lo=mid+1; else hi=mid;
+			}
+		if(this.methods==null) this.methods=new int[2];
+		if(this.countMethods==this.methods.length) this.methods=Arrays.copyOf(this.methods, this.countMethods*2);
+		System.arraycopy(this.methods, lo, this.methods, lo+1, this.countMethods-lo);
+		this.methods[lo]=symbol;
+		this.countMethods++;
+		}
+	
+	/** adds the methods of another link of the same graph */
+	void addMethods(Link other)
+		{
+		for(int i=0;i< other.countMethods;++i) addMethod(other.methods[i]);
+		}
+	
+	/** merges a link between the same classes: its relations and its methods */
+	void merge(Link other)
+		{
+		addRelations(other.relations);
+		addMethods(other);
+		}
+	
+	/** the relations of this link and of the links merged into it, one bit per Relation */
+	int getRelations()
+		{
+		return this.relations;
+		}
+	
+	void addRelations(int relations)
+		{
+		this.relations|=relations;
+		}
+	
+	/** removes these relations. If the relation of this link is removed, the first remaining
+	 * relation, in the order of Relation, becomes the relation of this link */
+	void removeRelations(Set<Relation> set)
+		{
+		for(Relation r:set) this.relations&=~(1<<r.ordinal());
+		if(this.relations!=0 && !hasRelation(this.label)) this.label=firstRelation(this.relations);
+		}
+	
+	/** the first relation of this set of bits, in the order of Relation */
+	static Relation firstRelation(int relations)
+		{
+		return Relation.values()[Integer.numberOfTrailingZeros(relations)];
+		}
+	
+	/** is this relation the relation of this link, or of a link merged into it ? */
+	boolean hasRelation(Relation r)
+		{
+		return (this.relations & (1<<r.ordinal()))!=0;
+		}
+	
+	/** is one of these relations the relation of this link, or of a link merged into it ? */
+	boolean hasRelation(Set<Relation> set)
+		{
+		for(Relation r:set)
+			{
+			if(hasRelation(r)) return true;
+			}
+		return false;
+		}
+	
+	/** the names of the methods, sorted */
+	Set<String> getMethods()
+		{
+		Set<String> set=new TreeSet<String>();
+		for(int i=0;i< this.countMethods;++i) set.add(getSymbols().toString(this.methods[i]));
+		return Collections.unmodifiableSet(set);
+		}
+	
+	/** the relation of the first link between those classes, used by the printers */
+	public Relation getRelation() {
+		return label;
+		}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if(obj==this) return true;
+		if(obj==null || getClass()!=obj.getClass()) return false;
+		return 	Link.class.cast(obj).from.equals(this.from) &&
+				Link.class.cast(obj).to.equals(this.to)
+				;
+		}
+	
+	@Override
+	public int hashCode() {
+		return from.hashCode()*31+to.hashCode();
+		}
+	
+	@Override
+	public String toString() {
+		return getFrom().toString() +
+				" -["+getRelation()+"]-> " +
+				getTo().toString();
+		}
+	
+	
+	
+	}
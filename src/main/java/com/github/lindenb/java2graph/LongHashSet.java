@@ -0,0 +1,71 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+/**
+ * Open-addressing hash set of longs. 0 is used for the empty slots, it cannot be added
+ * @author lindenb
+ *
+ */
+class LongHashSet
+	{
+	private long table[]=new long[1024];
+	private int size=0;
+	
+	private static int hash(long key)
+		{
+		key^=(key>>>33);
+		key*=0xff51afd7ed558ccdL;
+		key^=(key>>>33);
+		return (int)key;
+		}
+	
+	boolean add(long key)
+		{
+		if((this.size+1)*2>this.table.length) rehash();
+		int mask=this.table.length-1;
+		int i=hash(key)&mask;
+		while(this.table[i]!=0L)
+			{
+			if(this.table[i]==key) return false;
+			i=(i+1)&mask;
+			}
+		this.table[i]=key;
+		this.size++;
+		return true;
+		}
+	
+	private void rehash()
+		{
+		long old[]=this.table;
+		this.table=new long[old.length*2];
+		this.size=0;
+		for(long k:old) if(k!=0L) add(k);
+		}
+	
+	int size()
+		{
+		return this.size;
+		}
+	}
@@ -0,0 +1,253 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A jar (zip) file mapped in memory. The central directory is parsed once,
+ * the stored entries are returned as views of the mapping (no copy), the deflated
+ * entries are inflated from the mapping with a pool of Inflaters.
+ * @author lindenb
+ *
+ */
+class MappedJar
+	{
+	private static final int LOCAL_HEADER_SIGNATURE=0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE=0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE=0x06054b50;
+	private static final int ZIP64_LOCATOR_SIGNATURE=0x07064b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE=0x06064b50;
+	private static final int METHOD_STORED=0;
+	private static final int METHOD_DEFLATED=8;
+	
+	/** Inflaters shared by all the jars */
+	private static final ConcurrentLinkedQueue<Inflater> INFLATERS=new ConcurrentLinkedQueue<Inflater>();
+	
+	/** an entry of the central directory */
+	private static class Entry
+		{
+		int method;
+		long compressedSize;
+		long size;
+		long localHeaderOffset;
+		}
+	
+	private final File file;
+	private final long lastModified;
+	private final long length;
+	private final MappedByteBuffer buffer;
+	private final Map<String,Entry> entries=new LinkedHashMap<String,Entry>();
+	
+	MappedJar(File file) throws IOException
+		{
+		this.file=file;
+		this.lastModified=file.lastModified();
+		this.length=file.length();
+		RandomAccessFile raf=new RandomAccessFile(file, "r");
+		try
+			{
+			FileChannel channel=raf.getChannel();
+			if(channel.size()>Integer.MAX_VALUE) throw new IOException("Cannot map a file larger than 2Gb: "+file);
+			this.buffer=channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+			}
+		finally
+			{
+			raf.close();
+			}
+		this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+		readCentralDirectory();
+		}
+	
+	private ZipException error(String msg)
+		{
+		return new ZipException(msg+" in "+this.file);
+		}
+	
+	private void readCentralDirectory() throws IOException
+		{
+		final ByteBuffer bb=this.buffer;
+		/* end of central directory: at the end of the file, followed by a comment of at most 65535 bytes */
+		int eocd=-1;
+		for(int i=bb.limit()-22;i>=0 && i>=bb.limit()-22-0xFFFF;--i)
+			{
+			if(bb.getInt(i)==END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+				{
+				eocd=i;
+				break;
+				}
+			}
+		if(eocd==-1) throw error("Cannot find the end of the central directory");
+		long count=bb.getShort(eocd+10) & 0xFFFFL;
+		long cdOffset=bb.getInt(eocd+16) & 0xFFFFFFFFL;
+		
+		/* zip64 */
+		if(eocd>=20 && bb.getInt(eocd-20)==ZIP64_LOCATOR_SIGNATURE)
+			{
+			long zip64=bb.getLong(eocd-20+8);
+			if(zip64< 0 || zip64>bb.limit()-56 || bb.getInt((int)zip64)!=ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+				{
+				throw error("Bad zip64 end of central directory");
+				}
+			count=bb.getLong((int)zip64+32);
+			cdOffset=bb.getLong((int)zip64+48);
+			}
+		
+		int pos=(int)cdOffset;
+		for(long n=0;n< count;++n)
+			{
+			if(pos+46>bb.limit() || bb.getInt(pos)!=CENTRAL_HEADER_SIGNATURE) throw error("Bad central directory entry");
+			Entry e=new Entry();
+			e.method=bb.getShort(pos+10) & 0xFFFF;
+			e.compressedSize=bb.getInt(pos+20) & 0xFFFFFFFFL;
+			e.size=bb.getInt(pos+24) & 0xFFFFFFFFL;
+			int nameLength=bb.getShort(pos+28) & 0xFFFF;
+			int extraLength=bb.getShort(pos+30) & 0xFFFF;
+			int commentLength=bb.getShort(pos+32) & 0xFFFF;
+			e.localHeaderOffset=bb.getInt(pos+42) & 0xFFFFFFFFL;
+			byte nameBytes[]=new byte[nameLength];
+			for(int i=0;i< nameLength;++i) nameBytes[i]=bb.get(pos+46+i);
+			String name=new String(nameBytes,StandardCharsets.UTF_8);
+			
+			/* zip64 extra field: the 64 bits values, in this order, for the fields set to 0xFFFFFFFF */
+			int extra=pos+46+nameLength;
+			int extraEnd=extra+extraLength;
+			while(extra+4<=extraEnd)
+				{
+				int id=bb.getShort(extra) & 0xFFFF;
+				int size=bb.getShort(extra+2) & 0xFFFF;
+				if(id==0x0001)
+					{
+					int p=extra+4;
+					if(e.size==0xFFFFFFFFL) { e.size=bb.getLong(p); p+=8;}
+					if(e.compressedSize==0xFFFFFFFFL) { e.compressedSize=bb.getLong(p); p+=8;}
+					if(e.localHeaderOffset==0xFFFFFFFFL) { e.localHeaderOffset=bb.getLong(p); p+=8;}
+					}
+				extra+=4+size;
+				}
+			if(!name.endsWith("/")) this.entries.put(name, e);
+			pos+=46+nameLength+extraLength+commentLength;
+			}
+		}
+	
+	File getFile()
+		{
+		return this.file;
+		}
+	
+	/** was the file modified since it was mapped ? */
+	boolean isModified()
+		{
+		return this.file.lastModified()!=this.lastModified || this.file.length()!=this.length;
+		}
+	
+	/** names of the entries, in the order of the central directory */
+	List<String> getEntryNames()
+		{
+		return Collections.unmodifiableList(new ArrayList<String>(this.entries.keySet()));
+		}
+	
+	boolean contains(String name)
+		{
+		return this.entries.containsKey(name);
+		}
+	
+	/** returns the content of this entry, or null if it doesn't exist. Stored entries are a view of the mapped file */
+	ByteBuffer getEntry(String name) throws IOException
+		{
+		Entry e=this.entries.get(name);
+		if(e==null) return null;
+		final ByteBuffer bb=this.buffer;
+		int local=(int)e.localHeaderOffset;
+		if(local+30>bb.limit() || bb.getInt(local)!=LOCAL_HEADER_SIGNATURE) throw error("Bad local header for "+name);
+		int start=local+30+(bb.getShort(local+26) & 0xFFFF)+(bb.getShort(local+28) & 0xFFFF);
+		if(start+e.compressedSize>bb.limit()) throw error("Truncated entry "+name);
+		ByteBuffer data=bb.duplicate();
+		data.position(start);
+		data.limit(start+(int)e.compressedSize);
+		data=data.slice();
+		switch(e.method)
+			{
+			case METHOD_STORED: return data.asReadOnlyBuffer();
+			case METHOD_DEFLATED: return inflate(name,data,(int)e.size);
+			default: throw error("Unsupported compression method "+e.method+" for "+name);
+			}
+		}
+	
+	private ByteBuffer inflate(String name,ByteBuffer input,int size) throws IOException
+		{
+		Inflater inflater=INFLATERS.poll();
+		if(inflater==null) inflater=new Inflater(true);
+		try
+			{
+			/* the byte[] methods of Inflater: the ByteBuffer ones require java 11. One extra byte, as 'nowrap' may need it */
+			byte compressed[]=new byte[input.remaining()+1];
+			input.get(compressed, 0, compressed.length-1);
+			inflater.setInput(compressed);
+			byte output[]=new byte[size];
+			int n=0;
+			while(n< size && !inflater.finished())
+				{
+				int count=inflater.inflate(output, n, size-n);
+				if(count==0 && (inflater.needsInput() || inflater.needsDictionary()))
+					{
+					throw error("Truncated deflated entry "+name);
+					}
+				n+=count;
+				}
+			return ByteBuffer.wrap(output, 0, n);
+			}
+		catch(DataFormatException err)
+			{
+			throw error("Bad deflated entry "+name+": "+err.getMessage());
+			}
+		finally
+			{
+			inflater.reset();
+			INFLATERS.offer(inflater);
+			}
+		}
+	
+	@Override
+	public String toString()
+		{
+		return this.file.toString();
+		}
+	}
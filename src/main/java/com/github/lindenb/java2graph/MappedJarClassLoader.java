@@ -0,0 +1,235 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads the classes from a list of mapped jars, the bytes of a class
+ * are read from the mapping.
+ * The names that cannot be resolved are remembered with the missing type
+ * causing the failure: later attempts fail at once, with exceptions
+ * without stack trace, and a class whose super class or interface is
+ * known to be missing is not even defined.
+ * @author lindenb
+ *
+ */
+class MappedJarClassLoader
+	extends ClassLoader
+	{
+	static
+		{
+		ClassLoader.registerAsParallelCapable();
+		}
+	
+	/** the jar defining each entry. The first jar of the classpath wins */
+	private final Map<String,MappedJar> entry2jar=new HashMap<String,MappedJar>();
+	private final Map<MappedJar,ProtectionDomain> domains=new HashMap<MappedJar,ProtectionDomain>();
+	/** the names that cannot be resolved, and the missing type causing it */
+	private final Map<String,String> unresolved=new ConcurrentHashMap<String,String>();
+	private final MissingTypes missingTypes;
+	
+	/** a name that cannot be resolved. The same names fail many times: no stack trace */
+	private static class UnresolvedClassException
+		extends ClassNotFoundException
+		{
+		private static final long serialVersionUID = 1L;
+		UnresolvedClassException(String name)
+			{
+			super(name);
+			}
+		@Override
+		public synchronized Throwable fillInStackTrace()
+			{
+			return this;
+			}
+		}
+	
+	/** a class that cannot be defined because a type is missing. No stack trace */
+	private static class UnresolvedClassError
+		extends NoClassDefFoundError
+		{
+		private static final long serialVersionUID = 1L;
+		UnresolvedClassError(String missingType)
+			{
+			super(missingType);
+			}
+		@Override
+		public synchronized Throwable fillInStackTrace()
+			{
+			return this;
+			}
+		}
+	
+	MappedJarClassLoader(List<MappedJar> jars,ClassLoader parent,MissingTypes missingTypes) throws MalformedURLException
+		{
+		super(parent);
+		this.missingTypes=missingTypes;
+		for(MappedJar jar:jars)
+			{
+			for(String name:jar.getEntryNames())
+				{
+				if(!this.entry2jar.containsKey(name)) this.entry2jar.put(name, jar);
+				}
+			CodeSource src=new CodeSource(jar.getFile().toURI().toURL(),(Certificate[])null);
+			this.domains.put(jar, new ProtectionDomain(src, null, this, null));
+			}
+		}
+	
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+		{
+		/* don't ask the parent loader again */
+		if(this.unresolved.containsKey(name)) throw new UnresolvedClassException(name);
+		return super.loadClass(name, resolve);
+		}
+	
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException
+		{
+		String path=name.replace('.', '/')+".class";
+		MappedJar jar=this.entry2jar.get(path);
+		if(jar==null)
+			{
+			this.unresolved.put(name, name);
+			throw new UnresolvedClassException(name);
+			}
+		ByteBuffer bytes;
+		try
+			{
+			bytes=jar.getEntry(path);
+			}
+		catch(IOException err)
+			{
+			throw new ClassNotFoundException(name, err);
+			}
+		for(String superType:superTypes(bytes))
+			{
+			String missing=this.unresolved.get(superType);
+			if(missing!=null) throw unresolved(name,jar,missing);
+			}
+		try
+			{
+			return defineClass(name, bytes, this.domains.get(jar));
+			}
+		catch(NoClassDefFoundError err)
+			{
+			/* the message is the name of the missing type. It may itself be missing because of another type */
+			String missing=(err.getMessage()==null?name:err.getMessage().replace('/', '.'));
+			String cause=this.unresolved.get(missing);
+			throw unresolved(name,jar,cause==null?missing:cause);
+			}
+		}
+	
+	/** remembers that this class cannot be defined because of this missing type */
+	private UnresolvedClassError unresolved(String name,MappedJar jar,String missingType)
+		{
+		if(this.unresolved.put(name, missingType)==null && this.missingTypes!=null)
+			{
+			this.missingTypes.skipped(name, missingType, jar.getFile().getName());
+			}
+		return new UnresolvedClassError(missingType);
+		}
+	
+	private static int u2(ByteBuffer b,int pos)
+		{
+		return ((b.get(pos) & 0xFF)<<8) | (b.get(pos+1) & 0xFF);
+		}
+	
+	/** reads the names of the super class and of the interfaces in the header of a class file */
+	static String[] superTypes(ByteBuffer b)
+		{
+		try
+			{
+			int countConstants=u2(b,8);
+			/* position of each constant, 0 for the second slot of long and double */
+			int constants[]=new int[countConstants];
+			int pos=10;
+			for(int i=1;i< countConstants;++i)
+				{
+				constants[i]=pos;
+				int tag=b.get(pos);
+				switch(tag)
+					{
+					case 1: pos+=3+u2(b,pos+1); break;
+					case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18: pos+=5; break;
+					case 5: case 6: pos+=9; ++i; break;
+					case 7: case 8: case 16: case 19: case 20: pos+=3; break;
+					case 15: pos+=4; break;
+					default: return new String[0];
+					}
+				}
+			int superClass=u2(b,pos+4);
+			int countInterfaces=u2(b,pos+6);
+			String names[]=new String[(superClass==0?0:1)+countInterfaces];
+			int n=0;
+			if(superClass!=0) names[n++]=className(b,constants,superClass);
+			for(int i=0;i< countInterfaces;++i)
+				{
+				names[n++]=className(b,constants,u2(b,pos+8+2*i));
+				}
+			return names;
+			}
+		catch(IndexOutOfBoundsException err)
+			{
+			/* not a valid class file: defineClass will tell */
+			return new String[0];
+			}
+		}
+	
+	/** the binary name of a CONSTANT_Class */
+	private static String className(ByteBuffer b,int constants[],int index)
+		{
+		int utf8=constants[u2(b,constants[index]+1)];
+		byte array[]=new byte[u2(b,utf8+1)];
+		for(int i=0;i< array.length;++i) array[i]=b.get(utf8+3+i);
+		return new String(array,StandardCharsets.UTF_8).replace('/', '.');
+		}
+	
+	@Override
+	protected URL findResource(String name)
+		{
+		MappedJar jar=this.entry2jar.get(name);
+		if(jar==null) return null;
+		try
+			{
+			return new URL("jar:"+jar.getFile().toURI().toURL()+"!/"+name);
+			}
+		catch(MalformedURLException err)
+			{
+			return null;
+			}
+		}
+	}
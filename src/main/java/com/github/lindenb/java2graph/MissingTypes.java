@@ -0,0 +1,149 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The types that cannot be resolved (e.g. a missing optional dependency),
+ * the jars referencing them and the classes that were skipped or
+ * inspected partially because of them. Thread-safe.
+ * @author lindenb
+ *
+ */
+class MissingTypes
+	{
+	private static class Entry
+		{
+		final String type;
+		/** classes not loaded: they extend or implement the missing type, maybe indirectly */
+		int skippedClasses=0;
+		/** classes loaded, but their methods or declared classes were ignored */
+		int incompleteClasses=0;
+		final Set<String> jars=new TreeSet<String>();
+		Entry(String type)
+			{
+			this.type=type;
+			}
+		}
+	
+	private final Map<String,Entry> type2entry=new HashMap<String,Entry>();
+	/** the classes that were skipped, and their missing type */
+	private final Map<String,String> skipped=new HashMap<String,String>();
+	/** the classes already counted as incomplete, with their missing type: the batch jobs probe the same classes */
+	private final Set<String> incomplete=new HashSet<String>();
+	
+	/** the binary name of a type: the JVM may report an array, e.g. '[Lorg/foo/Bar;' */
+	private static String typeName(String missingType)
+		{
+		String type=missingType.replace('/', '.');
+		int i=0;
+		while(i< type.length() && type.charAt(i)=='[') ++i;
+		if(i>0 && type.startsWith("L", i) && type.endsWith(";")) type=type.substring(i+1,type.length()-1);
+		return type;
+		}
+	
+	private Entry entry(String type)
+		{
+		Entry e=this.type2entry.get(type);
+		if(e==null)
+			{
+			e=new Entry(type);
+			this.type2entry.put(type, e);
+			}
+		return e;
+		}
+	
+	/** a class of this jar was not loaded because this type is missing */
+	synchronized void skipped(String className,String missingType,String jar)
+		{
+		String type=typeName(missingType);
+		this.skipped.put(className, type);
+		Entry e=entry(type);
+		e.skippedClasses++;
+		e.jars.add(jar);
+		}
+	
+	/** the methods or the declared classes of a class of this jar were ignored because this type is missing */
+	synchronized void incomplete(String className,String missingType,String jar)
+		{
+		String type=typeName(missingType);
+		/* a class of the classpath, skipped because of another type */
+		String cause=this.skipped.get(type);
+		if(cause!=null) type=cause;
+		Entry e=entry(type);
+		e.jars.add(jar);
+		if(!this.incomplete.add(className+"\t"+type)) return;
+		e.incompleteClasses++;
+		}
+	
+	synchronized boolean isEmpty()
+		{
+		return this.type2entry.isEmpty();
+		}
+	
+	synchronized void clear()
+		{
+		this.type2entry.clear();
+		this.skipped.clear();
+		this.incomplete.clear();
+		}
+	
+	/** prints the missing types, the most harmful first */
+	synchronized void print(PrintStream out)
+		{
+		List<Entry> L=new ArrayList<Entry>(this.type2entry.values());
+		Collections.sort(L,new Comparator<Entry>()
+			{
+			@Override
+			public int compare(Entry o1, Entry o2)
+				{
+				int i=(o2.skippedClasses+o2.incompleteClasses)-(o1.skippedClasses+o1.incompleteClasses);
+				if(i!=0) return i;
+				return o1.type.compareTo(o2.type);
+				}
+			});
+		out.println("[java2graph] "+L.size()+" missing type(s)");
+		out.println("#missing type\tskipped classes\tincomplete classes\treferenced by");
+		for(Entry e:L)
+			{
+			StringBuilder jars=new StringBuilder();
+			for(String jar:e.jars)
+				{
+				if(jars.length()>0) jars.append(",");
+				jars.append(jar);
+				}
+			out.println(e.type+"\t"+e.skippedClasses+"\t"+e.incompleteClasses+"\t"+jars);
+			}
+		}
+	}
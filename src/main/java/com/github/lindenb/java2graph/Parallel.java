@@ -0,0 +1,96 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Minimal parallel loop over the integers [0,n)
+ * @author lindenb
+ *
+ */
+class Parallel
+	{
+	/** body of the loop */
+	interface Body
+		{
+		void run(int index);
+		}
+	
+	/** number of worker threads */
+	static final int NTHREADS=Math.max(1,Runtime.getRuntime().availableProcessors());
+	/** below this size, the loop is run in the current thread */
+	private static final int SERIAL_THRESHOLD=256;
+	
+	private Parallel()
+		{
+		}
+	
+	/** runs body.run(i) for each i in [0,n), returns when all the calls are completed */
+	static void forEach(final int n,final Body body)
+		{
+		if(n< SERIAL_THRESHOLD || NTHREADS==1)
+			{
+			for(int i=0;i< n;++i) body.run(i);
+			return;
+			}
+		final int nChunks=NTHREADS*4;
+		final int chunkSize=(n+nChunks-1)/nChunks;
+		List<Future<?>> futures=new ArrayList<Future<?>>(nChunks);
+		for(int start=0;start< n;start+=chunkSize)
+			{
+			final int begin=start;
+			final int end=Math.min(n, start+chunkSize);
+			futures.add(ForkJoinPool.commonPool().submit(new Runnable()
+				{
+				@Override
+				public void run()
+					{
+					for(int i=begin;i< end;++i) body.run(i);
+					}
+				}));
+			}
+		for(Future<?> f:futures)
+			{
+			try
+				{
+				f.get();
+				}
+			catch(InterruptedException err)
+				{
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(err);
+				}
+			catch(java.util.concurrent.ExecutionException err)
+				{
+				if(err.getCause() instanceof RuntimeException) throw (RuntimeException)err.getCause();
+				if(err.getCause() instanceof Error) throw (Error)err.getCause();
+				throw new RuntimeException(err.getCause());
+				}
+			}
+		}
+	}
@@ -0,0 +1,322 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * End-to-end scale test: generates a synthetic classpath, runs the whole
+ * Java2Graph pipeline (scan, traversal, DOT and GEXF output) on it and
+ * records the wall time, the peak heap, the peak direct and mapped buffers
+ * (the memory-mapped jars) and the size of the output. Each format is first
+ * run once without being measured, so all the runs are measured with a warm JIT.
+ * The numbers are compared to a baseline; the program exits with an error
+ * if one of them regressed beyond a threshold.
+ * @author lindenb
+ *
+ */
+class ScaleHarness
+	{
+	/** logger of java2graph */
+	private static final Logger LOG=Logger.getLogger("java2graph");
+	/** the measures, in the order they are reported */
+	private static final String METRICS[]=new String[]{"millis","peakHeap","peakDirect","peakMapped","bytes"};
+	/** interval between two samples of the buffer pools (ms) */
+	private static final long SAMPLING_MILLIS=5L;
+	
+	private final SyntheticClasspath generator=new SyntheticClasspath();
+	private File workDir=null;
+	private File baselineFile=null;
+	/** max allowed relative increase of a metric */
+	private double threshold=0.25;
+	/** ignore the variations of the wall time below this value (ms) */
+	private long minMillis=500L;
+	/** write the results as the new baseline */
+	private boolean updateBaseline=false;
+	/** number of runs of each format before the measured one */
+	private int warmup=1;
+	/** extra arguments for java2graph */
+	private List<String> extraArgs=new ArrayList<String>();
+	
+	/** sum of the peak usages of the heap memory pools */
+	private static long peakHeap()
+		{
+		long n=0L;
+		for(MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans())
+			{
+			if(pool.getType()!=MemoryType.HEAP || pool.getPeakUsage()==null) continue;
+			n+=pool.getPeakUsage().getUsed();
+			}
+		return n;
+		}
+	
+	/** the bytes used by the buffer pool with this name ('direct' or 'mapped'), or 0 */
+	private static long bufferPoolUsed(String name)
+		{
+		for(BufferPoolMXBean pool:ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class))
+			{
+			if(pool.getName().equals(name)) return pool.getMemoryUsed();
+			}
+		return 0L;
+		}
+	
+	/** the buffer pools have no peak usage: they are sampled while java2graph runs */
+	private static class BufferPoolSampler
+		extends Thread
+		{
+		volatile boolean done=false;
+		long peakDirect=0L;
+		long peakMapped=0L;
+		BufferPoolSampler()
+			{
+			super("buffer-pool-sampler");
+			setDaemon(true);
+			}
+		private void sample()
+			{
+			this.peakDirect=Math.max(this.peakDirect, bufferPoolUsed("direct"));
+			this.peakMapped=Math.max(this.peakMapped, bufferPoolUsed("mapped"));
+			}
+		@Override
+		public void run()
+			{
+			while(!this.done)
+				{
+				sample();
+				try { Thread.sleep(SAMPLING_MILLIS);} catch(InterruptedException err) { break;}
+				}
+			}
+		/** stops the sampling, takes a last sample */
+		void finish() throws InterruptedException
+			{
+			this.done=true;
+			this.join();
+			sample();
+			}
+		}
+	
+	private static void resetPeakHeap()
+		{
+		System.gc();
+		for(MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans())
+			{
+			if(pool.getType()!=MemoryType.HEAP) continue;
+			pool.resetPeakUsage();
+			}
+		}
+	
+	/** runs java2graph with this output format, returns the measures */
+	private long[] measure(String format,List<File> jars,File output)
+		{
+		List<String> args=new ArrayList<String>();
+		args.add(format);
+		args.add("-o");
+		args.add(output.getPath());
+		StringBuilder cp=new StringBuilder();
+		for(File f:jars)
+			{
+			if(cp.length()>0) cp.append(":");
+			cp.append(f.getPath());
+			}
+		args.add("-cp");
+		args.add(cp.toString());
+		args.addAll(this.extraArgs);
+		/* all the classes of the first jar are the targets */
+		args.add(jars.get(0).getPath());
+		
+		resetPeakHeap();
+		BufferPoolSampler sampler=new BufferPoolSampler();
+		sampler.start();
+		long start=System.nanoTime();
+		int status=Java2Graph.execute(args.toArray(new String[args.size()]));
+		long millis=(System.nanoTime()-start)/1000000L;
+		long heap=peakHeap();
+		try
+			{
+			sampler.finish();
+			}
+		catch(InterruptedException err)
+			{
+			throw new RuntimeException(err);
+			}
+		if(status!=0) throw new RuntimeException("java2graph failed with status "+status+" : "+args);
+		return new long[]{millis,heap,sampler.peakDirect,sampler.peakMapped,output.length()};
+		}
+	
+	private int run(String[] args) throws IOException
+		{
+		int optind=0;
+		while(optind< args.length)
+			{
+			if(args[optind].equals("-h"))
+				{
+				System.err.println("Runs java2graph on a synthetic classpath and compares the results to a baseline.");
+				System.err.println("Usage: ScaleHarness [options] [-- java2graph options]");
+				System.err.println(" -dir <dir> working directory. Default: a temporary directory");
+				System.err.println(" -baseline <file> baseline file (java properties). Created if it doesn't exist.");
+				System.err.println(" -threshold (double) max allowed relative increase. Default: "+this.threshold);
+				System.err.println(" -min-millis (long) ignore the time regressions below this duration. Default: "+this.minMillis);
+				System.err.println(" -warmup (int) number of runs of each format before the measured one. Default: "+this.warmup);
+				System.err.println(" -update write the results in the baseline file");
+				SyntheticClasspath.usage();
+				return 0;
+				}
+			else if(args[optind].equals("-dir") && optind+1< args.length)
+				{
+				this.workDir=new File(args[++optind]);
+				}
+			else if(args[optind].equals("-baseline") && optind+1< args.length)
+				{
+				this.baselineFile=new File(args[++optind]);
+				}
+			else if(args[optind].equals("-threshold") && optind+1< args.length)
+				{
+				this.threshold=Double.parseDouble(args[++optind]);
+				}
+			else if(args[optind].equals("-min-millis") && optind+1< args.length)
+				{
+				this.minMillis=Long.parseLong(args[++optind]);
+				}
+			else if(args[optind].equals("-warmup") && optind+1< args.length)
+				{
+				this.warmup=Integer.parseInt(args[++optind]);
+				}
+			else if(args[optind].equals("-update"))
+				{
+				this.updateBaseline=true;
+				}
+			else if(args[optind].equals("--"))
+				{
+				++optind;
+				this.extraArgs.addAll(Arrays.asList(args).subList(optind, args.length));
+				break;
+				}
+			else
+				{
+				int n=this.generator.parseOption(args, optind);
+				if(n==0)
+					{
+					System.err.println("bad argument " + args[optind]);
+					return -1;
+					}
+				optind+=n-1;
+				}
+			++optind;
+			}
+		if(this.workDir==null)
+			{
+			this.workDir=File.createTempFile("java2graph.", ".scale");
+			this.workDir.delete();
+			}
+		
+		long start=System.currentTimeMillis();
+		List<File> jars=this.generator.write(this.workDir);
+		System.err.println("generated "+jars.size()+" jar(s) in "+this.workDir+" in "+(System.currentTimeMillis()-start)+" ms");
+		
+		Properties results=new Properties();
+		String formats[][]=new String[][]{{"dot","-D"},{"gexf","-G"}};
+		/* the first run of a format pays the JIT compilation of its code */
+		for(int i=0;i< this.warmup;++i)
+			{
+			for(String[] format:formats)
+				{
+				measure(format[1],jars,new File(this.workDir,"output."+format[0]));
+				}
+			}
+		for(String[] format:formats)
+			{
+			long values[]=measure(format[1],jars,new File(this.workDir,"output."+format[0]));
+			for(int i=0;i< METRICS.length;++i)
+				{
+				results.setProperty(format[0]+"."+METRICS[i], String.valueOf(values[i]));
+				}
+			}
+		
+		Properties baseline=new Properties();
+		if(this.baselineFile!=null && this.baselineFile.exists())
+			{
+			InputStream in=new FileInputStream(this.baselineFile);
+			baseline.load(in);
+			in.close();
+			}
+		
+		int status=0;
+		System.out.println("#metric\tbaseline\tcurrent\tchange");
+		for(String[] format:formats)
+			{
+			for(String metric:METRICS)
+				{
+				String key=format[0]+"."+metric;
+				long current=Long.parseLong(results.getProperty(key));
+				String s=baseline.getProperty(key);
+				if(s==null)
+					{
+					System.out.println(key+"\t.\t"+current+"\t.");
+					continue;
+					}
+				long previous=Long.parseLong(s);
+				double change=(previous==0L?0.0:(current-previous)/(double)previous);
+				boolean regression=change>this.threshold;
+				if(metric.equals("millis") && current< this.minMillis) regression=false;
+				System.out.println(key+"\t"+previous+"\t"+current+"\t"+String.format("%+.1f%%",change*100.0)+(regression?"\tREGRESSION":""));
+				if(regression) status=1;
+				}
+			}
+		
+		if(this.baselineFile!=null && (this.updateBaseline || !this.baselineFile.exists()))
+			{
+			OutputStream out=new FileOutputStream(this.baselineFile);
+			results.store(out, "java2graph scale test: "+this.generator.countClasses+" classes, seed "+this.generator.seed);
+			out.close();
+			System.err.println("baseline written to "+this.baselineFile);
+			}
+		if(status!=0)
+			{
+			System.err.println("performance regression beyond "+(int)(this.threshold*100)+"%");
+			}
+		return status;
+		}
+	
+	public static void main(String[] args) throws IOException
+		{
+		LOG.setLevel(Level.OFF);
+		int status=new ScaleHarness().run(args);
+		if(status!=0) System.exit(status);
+		}
+	}
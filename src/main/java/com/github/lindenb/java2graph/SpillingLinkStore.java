@@ -0,0 +1,521 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+/**
+ * Stores the links with a fixed number of links in memory. When this number
+ * is reached, the links are sorted on (from,to) and written to a temporary 'run' file.
+ * Iterating over the links is an external merge sort of the runs, the duplicate
+ * links of the different runs are merged on the fly. To bound the number of open
+ * files, the runs are merged by tiers: when there are MAX_FAN_IN runs of the same
+ * level, they are merged into one run of the next level, so each link is written
+ * once per level. The run files are deleted by clear().
+ * @author lindenb
+ *
+ */
+class SpillingLinkStore
+	implements LinkStore
+	{
+	/** logger */
+	private static final Logger LOG=Logger.getLogger("java2graph");
+	/** max number of runs merged at once */
+	private static final int MAX_FAN_IN=64;
+	
+	/** a sorted run file */
+	private static class Run
+		{
+		final File file;
+		/** 0 for a spilled run, n+1 for the merge of MAX_FAN_IN runs of level n */
+		final int level;
+		/** number of records */
+		final long count;
+		Run(File file,int level,long count)
+			{
+			this.file=file;
+			this.level=level;
+			this.count=count;
+			}
+		}
+	
+	/** a link, as it is stored on disk */
+	private static class Record
+		{
+		int from;
+		int to;
+		Relation relation;
+		/** the relations of the merged links, one bit per Relation */
+		int relations;
+		/** insertion order: when merging, the relation of the oldest record is kept */
+		long seq;
+		Set<String> methods=null;
+		
+		long key()
+			{
+			return SpillingLinkStore.key(this.from, this.to);
+			}
+		
+		void write(DataOutputStream out) throws IOException
+			{
+			out.writeInt(this.from);
+			out.writeInt(this.to);
+			out.writeByte(this.relation.ordinal());
+			out.writeByte(this.relations);
+			out.writeLong(this.seq);
+			out.writeInt(this.methods==null?0:this.methods.size());
+			if(this.methods==null) return;
+			for(String m:this.methods) out.writeUTF(m);
+			}
+		
+		/** reads a record, returns null at the end of the file */
+		static Record read(DataInputStream in) throws IOException
+			{
+			Record rec=new Record();
+			try
+				{
+				rec.from=in.readInt();
+				}
+			catch(EOFException err)
+				{
+				return null;
+				}
+			rec.to=in.readInt();
+			rec.relation=Relation.values()[in.readByte()];
+			rec.relations=in.readByte();
+			rec.seq=in.readLong();
+			int n=in.readInt();
+			if(n>0)
+				{
+				rec.methods=new TreeSet<String>();
+				for(int i=0;i< n;++i) rec.methods.add(in.readUTF());
+				}
+			return rec;
+			}
+		}
+	
+	/** sort order of the records */
+	private static final Comparator<Record> RECORD_COMPARATOR=new Comparator<Record>()
+		{
+		@Override
+		public int compare(Record r1, Record r2)
+			{
+			if(r1.from!=r2.from) return r1.from< r2.from?-1:1;
+			if(r1.to!=r2.to) return r1.to< r2.to?-1:1;
+			if(r1.seq!=r2.seq) return r1.seq< r2.seq?-1:1;
+			return 0;
+			}
+		};
+	
+	/** a sorted source of records: a run file or the records in memory */
+	private static abstract class RecordSource
+		implements Closeable
+		{
+		Record current=null;
+		abstract Record read() throws IOException;
+		void next() throws IOException
+			{
+			this.current=read();
+			}
+		@Override
+		public void close() throws IOException
+			{
+			}
+		}
+	
+	private static class FileSource
+		extends RecordSource
+		{
+		private final DataInputStream in;
+		FileSource(File f) throws IOException
+			{
+			this.in=new DataInputStream(new BufferedInputStream(new FileInputStream(f),65536));
+			}
+		@Override
+		Record read() throws IOException
+			{
+			return Record.read(this.in);
+			}
+		@Override
+		public void close() throws IOException
+			{
+			this.in.close();
+			}
+		}
+	
+	private static class ListSource
+		extends RecordSource
+		{
+		private final Iterator<Record> iter;
+		ListSource(List<Record> list)
+			{
+			this.iter=list.iterator();
+			}
+		@Override
+		Record read()
+			{
+			return this.iter.hasNext()?this.iter.next():null;
+			}
+		}
+	
+	private final int maxLinksInMemory;
+	private final File tmpDir;
+	/** the classes, by id, to rebuild the links read from the disk */
+	private final Map<Integer,ClassWrapper> id2class=new HashMap<Integer,ClassWrapper>();
+	/** number of records written to the runs. The runs may share some links */
+	private long countRunRecords=0L;
+	/** the removed relations of a link, by key */
+	private final Map<Long,Integer> removedRelations=new HashMap<Long,Integer>();
+	/** number of links without any relation left */
+	private long countRemoved=0L;
+	/** records in memory, waiting to be spilled */
+	private final Map<Long,Record> buffer=new HashMap<Long,Record>();
+	/** the sorted runs written so far, the levels never increase from the first to the last run */
+	private final List<Run> runs=new ArrayList<Run>();
+	/** the iterators not exhausted yet, their files are open */
+	private final Set<MergingIterator> openedIterators=new HashSet<MergingIterator>();
+	private long seq=0L;
+	
+	SpillingLinkStore(int maxLinksInMemory,File tmpDir)
+		{
+		this.maxLinksInMemory=Math.max(1,maxLinksInMemory);
+		this.tmpDir=tmpDir;
+		}
+	
+	private static long key(int from,int to)
+		{
+		return (((long)from)<<32) | (to & 0xFFFFFFFFL);
+		}
+	
+	/**
+	 * Returns false if a link between those two classes is in memory. Only the links in memory
+	 * are checked: a link already written to a run is merged with its duplicates by the external merge.
+	 */
+	@Override
+	public boolean add(Link L) throws IOException
+		{
+		this.id2class.put(L.getFrom().getId(), L.getFrom());
+		this.id2class.put(L.getTo().getId(), L.getTo());
+		long key=key(L.getFrom().getId(),L.getTo().getId());
+		Record rec=this.buffer.get(key);
+		boolean isNew=(rec==null);
+		if(rec==null)
+			{
+			rec=new Record();
+			rec.from=L.getFrom().getId();
+			rec.to=L.getTo().getId();
+			rec.relation=L.getRelation();
+			rec.relations=L.getRelations();
+			rec.seq=(++this.seq);
+			this.buffer.put(key, rec);
+			}
+		rec.relations|=L.getRelations();
+		if(L.hasMethods())
+			{
+			if(rec.methods==null) rec.methods=new TreeSet<String>();
+			rec.methods.addAll(L.getMethods());
+			}
+		if(this.buffer.size()>=this.maxLinksInMemory)
+			{
+			spill();
+			}
+		return isNew;
+		}
+	
+	/** records in memory, sorted */
+	private List<Record> sortedBuffer()
+		{
+		List<Record> L=new ArrayList<Record>(this.buffer.values());
+		Collections.sort(L,RECORD_COMPARATOR);
+		return L;
+		}
+	
+	private File createRunFile() throws IOException
+		{
+		return File.createTempFile("java2graph.", ".links", this.tmpDir);
+		}
+	
+	/** writes the records in memory to a new run */
+	private void spill() throws IOException
+		{
+		File f=createRunFile();
+		LOG.info("writing "+this.buffer.size()+" links to "+f);
+		DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f),65536));
+		for(Record rec:sortedBuffer())
+			{
+			rec.write(out);
+			}
+		out.close();
+		this.countRunRecords+=this.buffer.size();
+		this.runs.add(new Run(f,0,this.buffer.size()));
+		this.buffer.clear();
+		/* the last MAX_FAN_IN runs have the same level */
+		while(this.runs.size()>=MAX_FAN_IN &&
+			this.runs.get(this.runs.size()-MAX_FAN_IN).level==this.runs.get(this.runs.size()-1).level)
+			{
+			compact();
+			}
+		}
+	
+	/** merges the last MAX_FAN_IN runs into one run of the next level */
+	private void compact() throws IOException
+		{
+		List<Run> merged=new ArrayList<Run>(this.runs.subList(this.runs.size()-MAX_FAN_IN, this.runs.size()));
+		File f=createRunFile();
+		LOG.info("merging "+merged.size()+" runs of level "+merged.get(0).level+" into "+f);
+		List<RecordSource> sources=new ArrayList<RecordSource>();
+		long before=0L;
+		for(Run run:merged)
+			{
+			sources.add(new FileSource(run.file));
+			before+=run.count;
+			}
+		MergingIterator iter=new MergingIterator(sources);
+		DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f),65536));
+		long n=0L;
+		while(iter.hasNext())
+			{
+			iter.nextRecord().write(out);
+			++n;
+			}
+		out.close();
+		for(Run run:merged) run.file.delete();
+		this.runs.subList(this.runs.size()-MAX_FAN_IN, this.runs.size()).clear();
+		this.runs.add(new Run(f,merged.get(0).level+1,n));
+		/* the duplicates of the merged runs were merged */
+		this.countRunRecords-=(before-n);
+		}
+	
+	/** merges the sorted sources, the records with the same (from,to) are merged */
+	private class MergingIterator
+		implements Iterator<Link>
+		{
+		private final List<RecordSource> sources;
+		private final PriorityQueue<RecordSource> queue=new PriorityQueue<RecordSource>(11,new Comparator<RecordSource>()
+			{
+			@Override
+			public int compare(RecordSource s1, RecordSource s2)
+				{
+				return RECORD_COMPARATOR.compare(s1.current, s2.current);
+				}
+			});
+		private Record nextRecord=null;
+		
+		MergingIterator(List<RecordSource> sources) throws IOException
+			{
+			this.sources=sources;
+			openedIterators.add(this);
+			for(RecordSource src:sources)
+				{
+				src.next();
+				if(src.current!=null) this.queue.add(src);
+				}
+			advance();
+			}
+		
+		private Record poll() throws IOException
+			{
+			RecordSource src=this.queue.poll();
+			if(src==null) return null;
+			Record rec=src.current;
+			src.next();
+			if(src.current!=null)
+				{
+				this.queue.add(src);
+				}
+			else
+				{
+				src.close();
+				}
+			return rec;
+			}
+		
+		private void advance() throws IOException
+			{
+			for(;;)
+				{
+				Record rec=poll();
+				if(rec!=null)
+					{
+					/* merge the records with the same key. The first one has the lowest 'seq' */
+					while(!this.queue.isEmpty() &&
+						this.queue.peek().current.from==rec.from &&
+						this.queue.peek().current.to==rec.to)
+						{
+						Record dup=poll();
+						rec.relations|=dup.relations;
+						if(dup.methods!=null)
+							{
+							if(rec.methods==null) rec.methods=new TreeSet<String>();
+							rec.methods.addAll(dup.methods);
+							}
+						}
+					Integer mask=removedRelations.get(rec.key());
+					if(mask!=null)
+						{
+						rec.relations&=~mask;
+						if(rec.relations==0) continue;
+						if((rec.relations & (1<<rec.relation.ordinal()))==0) rec.relation=Link.firstRelation(rec.relations);
+						}
+					}
+				else
+					{
+					/* exhausted: release the files */
+					close();
+					}
+				this.nextRecord=rec;
+				return;
+				}
+			}
+		
+		@Override
+		public boolean hasNext()
+			{
+			return this.nextRecord!=null;
+			}
+		
+		Record nextRecord()
+			{
+			if(this.nextRecord==null) throw new NoSuchElementException();
+			Record rec=this.nextRecord;
+			try
+				{
+				advance();
+				}
+			catch(IOException err)
+				{
+				throw new RuntimeException(err);
+				}
+			return rec;
+			}
+		
+		@Override
+		public Link next()
+			{
+			Record rec=nextRecord();
+			Link L=new Link(id2class.get(rec.from),id2class.get(rec.to),rec.relation);
+			L.addRelations(rec.relations);
+			if(rec.methods!=null)
+				{
+				for(String m: rec.methods) L.addMethod(L.getSymbols().intern(m));
+				}
+			return L;
+			}
+		
+		@Override
+		public void remove()
+			{
+			throw new UnsupportedOperationException();
+			}
+		
+		void close() throws IOException
+			{
+			openedIterators.remove(this);
+			for(RecordSource src:this.sources) src.close();
+			}
+		}
+	
+	@Override
+	public Iterator<Link> iterator()
+		{
+		try
+			{
+			List<RecordSource> sources=new ArrayList<RecordSource>();
+			for(Run run:this.runs)
+				{
+				sources.add(new FileSource(run.file));
+				}
+			sources.add(new ListSource(sortedBuffer()));
+			return new MergingIterator(sources);
+			}
+		catch(IOException err)
+			{
+			throw new RuntimeException(err);
+			}
+		}
+	
+	@Override
+	public void removeRelations(Collection<Link> col,Set<Relation> relations)
+		{
+		int mask=0;
+		for(Relation r:relations) mask|=1<<r.ordinal();
+		for(Link L:col)
+			{
+			long key=key(L.getFrom().getId(),L.getTo().getId());
+			Integer prev=this.removedRelations.get(key);
+			int removed=(prev==null?0:prev.intValue())|mask;
+			this.removedRelations.put(key, removed);
+			/* the link was read with all its relations merged */
+			boolean wasEmpty=(prev!=null && (L.getRelations() & ~prev.intValue())==0);
+			if(!wasEmpty && (L.getRelations() & ~removed)==0) this.countRemoved++;
+			}
+		}
+	
+	/** an upper bound once some links were written to several runs: the duplicates are only merged when the runs are merged */
+	@Override
+	public long size()
+		{
+		return Math.max(0L,this.countRunRecords+this.buffer.size()-this.countRemoved);
+		}
+	
+	@Override
+	public void clear()
+		{
+		for(MergingIterator iter:new ArrayList<MergingIterator>(this.openedIterators))
+			{
+			try { iter.close();} catch(IOException err) {}
+			}
+		for(Run run:this.runs) run.file.delete();
+		this.runs.clear();
+		this.buffer.clear();
+		this.removedRelations.clear();
+		this.countRemoved=0L;
+		this.id2class.clear();
+		this.countRunRecords=0L;
+		this.seq=0L;
+		}
+	}
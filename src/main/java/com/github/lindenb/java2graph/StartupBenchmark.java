@@ -0,0 +1,180 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the startup of short java2graph runs: each run is a new JVM,
+ * started like the launcher does, with and without the class-data-sharing
+ * archive of java2graph. The JDK's default archive is used in both cases.
+ * @author lindenb
+ *
+ */
+class StartupBenchmark
+	{
+	private File jarFile=new File("dist/java2graph.jar");
+	private File archiveFile=null;
+	/** number of measured runs per mode */
+	private int countRuns=20;
+	/** number of runs ignored before the measures */
+	private int countWarmup=2;
+	/** arguments of java2graph */
+	private List<String> java2graphArgs=new ArrayList<String>();
+	
+	/** runs java2graph once in a new JVM, returns the wall time in ms */
+	private long runOnce(List<String> jvmArgs,File output) throws IOException,InterruptedException
+		{
+		List<String> cmd=new ArrayList<String>();
+		cmd.add(new File(new File(System.getProperty("java.home"),"bin"),"java").getPath());
+		cmd.addAll(jvmArgs);
+		cmd.add("-jar");
+		cmd.add(this.jarFile.getAbsolutePath());
+		cmd.addAll(this.java2graphArgs);
+		ProcessBuilder pb=new ProcessBuilder(cmd);
+		pb.redirectErrorStream(true);
+		pb.redirectOutput(output);
+		long start=System.nanoTime();
+		Process proc=pb.start();
+		int status=proc.waitFor();
+		long millis=(System.nanoTime()-start)/1000000L;
+		if(status!=0) throw new IOException("java2graph failed with status "+status+" : "+cmd+" see "+output);
+		return millis;
+		}
+	
+	/** runs the modes alternately, so a drift of the machine affects them equally. Returns the sorted wall times of each mode */
+	private long[][] measure(List<List<String>> modes,File output) throws IOException,InterruptedException
+		{
+		for(int i=0;i< this.countWarmup;++i)
+			{
+			for(List<String> jvmArgs:modes) runOnce(jvmArgs,output);
+			}
+		long times[][]=new long[modes.size()][this.countRuns];
+		for(int i=0;i< this.countRuns;++i)
+			{
+			for(int j=0;j< modes.size();++j) times[j][i]=runOnce(modes.get(j),output);
+			}
+		for(long t[]:times) Arrays.sort(t);
+		return times;
+		}
+	
+	private static String report(String mode,long times[])
+		{
+		long sum=0L;
+		for(long t:times) sum+=t;
+		return mode+"\t"+times[0]+"\t"+times[times.length/2]+"\t"+(sum/times.length)+"\t"+times[times.length-1];
+		}
+	
+	private int run(String[] args) throws IOException,InterruptedException
+		{
+		int optind=0;
+		while(optind< args.length)
+			{
+			if(args[optind].equals("-h"))
+				{
+				System.err.println("Measures the startup time of java2graph with and without its class-data-sharing archive.");
+				System.err.println("Usage: StartupBenchmark [options] [-- java2graph options]");
+				System.err.println(" -jar <file> java2graph jar. Default: "+this.jarFile);
+				System.err.println(" -archive <file> class-data-sharing archive. Default: java2graph.jsa next to the jar");
+				System.err.println(" -runs (int) number of measured runs per mode. Default: "+this.countRuns);
+				System.err.println(" -warmup (int) number of runs ignored before the measures. Default: "+this.countWarmup);
+				System.err.println("The default java2graph options print the graph of java.util.ArrayList.");
+				return 0;
+				}
+			else if(args[optind].equals("-jar") && optind+1< args.length)
+				{
+				this.jarFile=new File(args[++optind]);
+				}
+			else if(args[optind].equals("-archive") && optind+1< args.length)
+				{
+				this.archiveFile=new File(args[++optind]);
+				}
+			else if(args[optind].equals("-runs") && optind+1< args.length)
+				{
+				this.countRuns=Integer.parseInt(args[++optind]);
+				}
+			else if(args[optind].equals("-warmup") && optind+1< args.length)
+				{
+				this.countWarmup=Integer.parseInt(args[++optind]);
+				}
+			else if(args[optind].equals("--"))
+				{
+				++optind;
+				this.java2graphArgs.addAll(Arrays.asList(args).subList(optind, args.length));
+				break;
+				}
+			else
+				{
+				System.err.println("bad argument " + args[optind]);
+				return -1;
+				}
+			++optind;
+			}
+		if(this.countRuns< 1)
+			{
+			System.err.println("bad number of runs");
+			return -1;
+			}
+		if(this.archiveFile==null)
+			{
+			this.archiveFile=new File(this.jarFile.getAbsoluteFile().getParentFile(),"java2graph.jsa");
+			}
+		if(this.java2graphArgs.isEmpty())
+			{
+			this.java2graphArgs.add("java.util.ArrayList");
+			}
+		
+		if(!this.archiveFile.exists())
+			{
+			System.err.println("no archive "+this.archiveFile+" : run 'ant cds' first");
+			return 1;
+			}
+		File output=File.createTempFile("java2graph.", ".startup");
+		output.deleteOnExit();
+		
+		List<List<String>> modes=new ArrayList<List<String>>();
+		modes.add(new ArrayList<String>());
+		List<String> jvmArgs=new ArrayList<String>();
+		jvmArgs.add("-XX:SharedArchiveFile="+this.archiveFile.getAbsolutePath());
+		modes.add(jvmArgs);
+		long times[][]=measure(modes,output);
+		long without[]=times[0];
+		long with[]=times[1];
+		System.out.println("#mode\tmin\tmedian\tmean\tmax (ms, "+this.countRuns+" runs)");
+		System.out.println(report("default",without));
+		System.out.println(report("archive",with));
+		System.out.println(String.format("#median: %+.1f%%",(with[with.length/2]-without[without.length/2])*100.0/without[without.length/2]));
+		return 0;
+		}
+	
+	public static void main(String[] args) throws IOException,InterruptedException
+		{
+		int status=new StartupBenchmark().run(args);
+		if(status!=0) System.exit(status);
+		}
+	}
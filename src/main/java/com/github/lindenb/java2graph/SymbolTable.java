@@ -0,0 +1,425 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Stores each name once, as UTF-8, in an off-heap arena. A symbol is an
+ * int handle. The hash of the symbols and the offsets of the package and
+ * of the simple name of the class names are computed once.
+ * Not thread-safe: one table per graph.
+ * @author lindenb
+ *
+ */
+class SymbolTable
+	{
+	/** the package or the simple name wasn't interned yet */
+	private static final int NOT_COMPUTED=-2;
+	
+	/** the bytes of the symbols */
+	private ByteBuffer arena=ByteBuffer.allocateDirect(1<<16);
+	/** number of bytes used in the arena */
+	private int used=0;
+	/** number of symbols */
+	private int count=0;
+	private int offset[]=new int[256];
+	private int length[]=new int[256];
+	private int hash[]=new int[256];
+	/** index of the last '.' in the symbol, -1 if none */
+	private int lastDot[]=new int[256];
+	/** index of the first byte of the simple name (after the last '.' or '$') */
+	private int simpleStart[]=new int[256];
+	/** symbol of the package, -1 for the default package */
+	private int packageSymbol[]=new int[256];
+	/** symbol of the simple name */
+	private int simpleSymbol[]=new int[256];
+	/** is the symbol made of ASCII characters only */
+	private boolean ascii[]=new boolean[256];
+	/** open addressing: symbol+1, 0 if the slot is empty */
+	private int table[]=new int[512];
+	/** buffer for the copies out of the arena */
+	private byte scratch[]=new byte[256];
+	
+	/** number of symbols */
+	int size()
+		{
+		return this.count;
+		}
+	
+	/** number of bytes used by the names */
+	int getArenaSize()
+		{
+		return this.used;
+		}
+	
+	/** length of the symbol, in bytes */
+	int length(int symbol)
+		{
+		return this.length[symbol];
+		}
+	
+	int hashCode(int symbol)
+		{
+		return this.hash[symbol];
+		}
+	
+	private static boolean isAscii(String s)
+		{
+		for(int i=0;i< s.length();++i)
+			{
+			if(s.charAt(i)>=0x80) return false;
+			}
+		return true;
+		}
+	
+	/** hash of an ASCII string or of UTF-8 bytes: both give the same hash for the same name */
+	private static int hash(String s,byte bytes[])
+		{
+		int h=0;
+		if(bytes==null)
+			{
+			for(int i=0;i< s.length();++i) h=31*h+s.charAt(i);
+			}
+		else
+			{
+			for(byte b:bytes) h=31*h+(b & 0xFF);
+			}
+		return h;
+		}
+	
+	/** compares the symbol to an ASCII string or to UTF-8 bytes */
+	private boolean sameAs(int symbol,String s,byte bytes[])
+		{
+		int len=(bytes==null?s.length():bytes.length);
+		if(this.length[symbol]!=len) return false;
+		int off=this.offset[symbol];
+		for(int i=0;i< len;++i)
+			{
+			byte b=(bytes==null?(byte)s.charAt(i):bytes[i]);
+			if(this.arena.get(off+i)!=b) return false;
+			}
+		return true;
+		}
+	
+	/** returns the slot of the name in the table: the slot of its symbol, or the empty slot where it goes */
+	private int slot(String s,byte bytes[],int h)
+		{
+		int mask=this.table.length-1;
+		int i=h & mask;
+		while(this.table[i]!=0 && !(this.hash[this.table[i]-1]==h && sameAs(this.table[i]-1,s,bytes)))
+			{
+			i=(i+1) & mask;
+			}
+		return i;
+		}
+	
+	/** returns the symbol of this name, or -1 */
+	int find(String s)
+		{
+		byte bytes[]=(isAscii(s)?null:s.getBytes(StandardCharsets.UTF_8));
+		int h=hash(s,bytes);
+		int sym=this.table[slot(s,bytes,h)]-1;
+		return sym;
+		}
+	
+	/** returns the symbol of this name, adds the name if needed */
+	int intern(String s)
+		{
+		boolean isAscii=isAscii(s);
+		byte bytes[]=(isAscii?null:s.getBytes(StandardCharsets.UTF_8));
+		int h=hash(s,bytes);
+		int i=slot(s,bytes,h);
+		if(this.table[i]!=0) return this.table[i]-1;
+		int len=(bytes==null?s.length():bytes.length);
+		int sym=newSymbol(len,h,isAscii);
+		int off=this.offset[sym];
+		for(int k=0;k< len;++k)
+			{
+			this.arena.put(off+k, bytes==null?(byte)s.charAt(k):bytes[k]);
+			}
+		scanSeparators(sym);
+		this.table[i]=sym+1;
+		if(this.count*2> this.table.length) rehash();
+		return sym;
+		}
+	
+	/** interns the 'len' bytes of the arena starting at 'off' */
+	private int internSlice(int off,int len,boolean isAscii)
+		{
+		int h=0;
+		for(int k=0;k< len;++k) h=31*h+(this.arena.get(off+k) & 0xFF);
+		int mask=this.table.length-1;
+		int i=h & mask;
+		while(this.table[i]!=0)
+			{
+			int sym=this.table[i]-1;
+			if(this.hash[sym]==h && this.length[sym]==len)
+				{
+				int k=0;
+				while(k< len && this.arena.get(this.offset[sym]+k)==this.arena.get(off+k)) ++k;
+				if(k==len) return sym;
+				}
+			i=(i+1) & mask;
+			}
+		int sym=newSymbol(len,h,isAscii);
+		/* the arena may have been replaced: copy from the new one */
+		for(int k=0;k< len;++k)
+			{
+			this.arena.put(this.offset[sym]+k, this.arena.get(off+k));
+			}
+		scanSeparators(sym);
+		this.table[i]=sym+1;
+		if(this.count*2> this.table.length) rehash();
+		return sym;
+		}
+	
+	/** reserves the arena and the arrays for a new symbol */
+	private int newSymbol(int len,int h,boolean isAscii)
+		{
+		if(this.used+len> this.arena.capacity())
+			{
+			ByteBuffer copy=ByteBuffer.allocateDirect(Math.max(this.arena.capacity()*2, this.used+len));
+			ByteBuffer src=this.arena.duplicate();
+			src.position(0);
+			src.limit(this.used);
+			copy.put(src);
+			this.arena=copy;
+			}
+		if(this.count==this.offset.length)
+			{
+			int n=this.count*2;
+			this.offset=Arrays.copyOf(this.offset, n);
+			this.length=Arrays.copyOf(this.length, n);
+			this.hash=Arrays.copyOf(this.hash, n);
+			this.lastDot=Arrays.copyOf(this.lastDot, n);
+			this.simpleStart=Arrays.copyOf(this.simpleStart, n);
+			this.packageSymbol=Arrays.copyOf(this.packageSymbol, n);
+			this.simpleSymbol=Arrays.copyOf(this.simpleSymbol, n);
+			this.ascii=Arrays.copyOf(this.ascii, n);
+			}
+		int sym=this.count++;
+		this.offset[sym]=this.used;
+		this.length[sym]=len;
+		this.hash[sym]=h;
+		this.ascii[sym]=isAscii;
+		this.packageSymbol[sym]=NOT_COMPUTED;
+		this.simpleSymbol[sym]=NOT_COMPUTED;
+		this.used+=len;
+		return sym;
+		}
+	
+	/** finds the last '.' and the start of the simple name */
+	private void scanSeparators(int sym)
+		{
+		int off=this.offset[sym];
+		int dot=-1;
+		int simple=0;
+		for(int k=0;k< this.length[sym];++k)
+			{
+			byte b=this.arena.get(off+k);
+			if(b=='.')
+				{
+				dot=k;
+				simple=k+1;
+				}
+			else if(b=='$')
+				{
+				simple=k+1;
+				}
+			}
+		this.lastDot[sym]=dot;
+		this.simpleStart[sym]=simple;
+		}
+	
+	private void rehash()
+		{
+		int newTable[]=new int[this.table.length*2];
+		int mask=newTable.length-1;
+		for(int sym=0;sym< this.count;++sym)
+			{
+			int i=this.hash[sym] & mask;
+			while(newTable[i]!=0) i=(i+1) & mask;
+			newTable[i]=sym+1;
+			}
+		this.table=newTable;
+		}
+	
+	/** returns the symbol of the package of a class name, or -1 for the default package */
+	int getPackage(int symbol)
+		{
+		if(this.packageSymbol[symbol]==NOT_COMPUTED)
+			{
+			/* internSlice may grow the arrays: don't assign its result directly */
+			int pack=(this.lastDot[symbol]< 0?-1:
+				internSlice(this.offset[symbol],this.lastDot[symbol],this.ascii[symbol]));
+			this.packageSymbol[symbol]=pack;
+			}
+		return this.packageSymbol[symbol];
+		}
+	
+	/** returns the symbol of the simple name of a class name: after the last '.' or '$' */
+	int getSimpleName(int symbol)
+		{
+		if(this.simpleSymbol[symbol]==NOT_COMPUTED)
+			{
+			int start=this.simpleStart[symbol];
+			int simple=(start==0?symbol:
+				internSlice(this.offset[symbol]+start,this.length[symbol]-start,this.ascii[symbol]));
+			this.simpleSymbol[symbol]=simple;
+			}
+		return this.simpleSymbol[symbol];
+		}
+	
+	/** does the symbol contain this byte */
+	boolean contains(int symbol,char c)
+		{
+		int off=this.offset[symbol];
+		for(int k=0;k< this.length[symbol];++k)
+			{
+			if(this.arena.get(off+k)==(byte)c) return true;
+			}
+		return false;
+		}
+	
+	/** does the symbol equal this string */
+	boolean equals(int symbol,String s)
+		{
+		return sameAs(symbol,s,isAscii(s)?null:s.getBytes(StandardCharsets.UTF_8));
+		}
+	
+	/** does the symbol start with this prefix */
+	boolean startsWith(int symbol,String prefix)
+		{
+		byte bytes[]=(isAscii(prefix)?null:prefix.getBytes(StandardCharsets.UTF_8));
+		int len=(bytes==null?prefix.length():bytes.length);
+		if(this.length[symbol]< len) return false;
+		int off=this.offset[symbol];
+		for(int i=0;i< len;++i)
+			{
+			byte b=(bytes==null?(byte)prefix.charAt(i):bytes[i]);
+			if(this.arena.get(off+i)!=b) return false;
+			}
+		return true;
+		}
+	
+	/** compares two symbols, byte by byte: the order of the code points */
+	int compare(int s1,int s2)
+		{
+		if(s1==s2) return 0;
+		int n=Math.min(this.length[s1], this.length[s2]);
+		for(int i=0;i< n;++i)
+			{
+			int c=(this.arena.get(this.offset[s1]+i) & 0xFF)-(this.arena.get(this.offset[s2]+i) & 0xFF);
+			if(c!=0) return c;
+			}
+		return this.length[s1]-this.length[s2];
+		}
+	
+	/** copies the bytes of the symbol to the scratch buffer */
+	private int copy(int symbol)
+		{
+		int len=this.length[symbol];
+		if(this.scratch.length< len) this.scratch=new byte[len*2];
+		ByteBuffer src=this.arena.duplicate();
+		src.position(this.offset[symbol]);
+		src.get(this.scratch, 0, len);
+		return len;
+		}
+	
+	/** decodes the symbol */
+	String toString(int symbol)
+		{
+		int len=copy(symbol);
+		return new String(this.scratch,0,len,this.ascii[symbol]?StandardCharsets.ISO_8859_1:StandardCharsets.UTF_8);
+		}
+	
+	/** appends the symbol to a string builder */
+	void appendTo(int symbol,StringBuilder sb)
+		{
+		if(!this.ascii[symbol])
+			{
+			sb.append(toString(symbol));
+			return;
+			}
+		int off=this.offset[symbol];
+		for(int k=0;k< this.length[symbol];++k)
+			{
+			sb.append((char)this.arena.get(off+k));
+			}
+		}
+	
+	/** writes the UTF-8 bytes of the symbol */
+	void write(int symbol,PrintStream out)
+		{
+		int len=copy(symbol);
+		out.write(this.scratch, 0, len);
+		}
+	
+	/** returns a view of the symbol, for the regular expressions. Decoded if the symbol is not ASCII */
+	CharSequence chars(final int symbol)
+		{
+		if(!this.ascii[symbol]) return toString(symbol);
+		return new AsciiView(this.offset[symbol],this.length[symbol]);
+		}
+	
+	/** a slice of ASCII bytes of the arena, seen as characters */
+	private class AsciiView implements CharSequence
+		{
+		private final int off;
+		private final int len;
+		AsciiView(int off,int len)
+			{
+			this.off=off;
+			this.len=len;
+			}
+		@Override
+		public int length()
+			{
+			return this.len;
+			}
+		@Override
+		public char charAt(int index)
+			{
+			if(index< 0 || index>=this.len) throw new IndexOutOfBoundsException(String.valueOf(index));
+			return (char)arena.get(this.off+index);
+			}
+		@Override
+		public CharSequence subSequence(int start, int end)
+			{
+			if(start< 0 || end> this.len || start> end) throw new IndexOutOfBoundsException(start+"-"+end);
+			return new AsciiView(this.off+start,end-start);
+			}
+		@Override
+		public String toString()
+			{
+			char array[]=new char[this.len];
+			for(int i=0;i< this.len;++i) array[i]=charAt(i);
+			return new String(array);
+			}
+		}
+	}
@@ -0,0 +1,361 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Writes jars filled with synthetic classes: a random but reproducible
+ * (fixed seed) hierarchy of abstract classes, interfaces, inner classes
+ * and method signatures. Used to reproduce large classpaths.
+ * The class files are written directly, they only contain abstract
+ * methods, so no bytecode is needed.
+ * @author lindenb
+ *
+ */
+class SyntheticClasspath
+	{
+	/** number of classes (interfaces excluded) */
+	int countClasses=1000;
+	/** number of interfaces. -1: a quarter of the number of classes */
+	int countInterfaces=-1;
+	/** max depth of the class hierarchy */
+	int maxDepth=6;
+	/** max number of interfaces implemented by a class */
+	int interfaceFanOut=3;
+	/** probability for a class to declare an inner class */
+	double innerClassProbability=0.2;
+	/** number of methods per class */
+	int countMethods=5;
+	/** number of parameters per method */
+	int maxParameters=3;
+	/** number of classes per package */
+	int classesPerPackage=50;
+	/** number of jars */
+	int countJars=1;
+	/** random seed */
+	long seed=0L;
+	
+	/** a generated type */
+	private static class Type
+		{
+		String name;//internal name, e.g. 'synth/p1/C12'
+		boolean isInterface;
+		Type superType=null;
+		Type declaringType=null;
+		List<Type> interfaces=new ArrayList<Type>();
+		List<Type> innerTypes=new ArrayList<Type>();
+		int depth=0;
+		int jar=0;
+		}
+	
+	/** minimal writer for the constant pool of a class file */
+	private static class ConstantPool
+		{
+		private final ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+		private final DataOutputStream data=new DataOutputStream(bytes);
+		private final Map<String,Integer> utf8=new HashMap<String,Integer>();
+		private final Map<String,Integer> classes=new HashMap<String,Integer>();
+		private int count=1;
+		
+		int utf8(String s) throws IOException
+			{
+			Integer idx=this.utf8.get(s);
+			if(idx!=null) return idx;
+			data.writeByte(1);
+			data.writeUTF(s);
+			idx=count++;
+			this.utf8.put(s, idx);
+			return idx;
+			}
+		
+		int classRef(String internalName) throws IOException
+			{
+			Integer idx=this.classes.get(internalName);
+			if(idx!=null) return idx;
+			int nameIdx=utf8(internalName);
+			data.writeByte(7);
+			data.writeShort(nameIdx);
+			idx=count++;
+			this.classes.put(internalName, idx);
+			return idx;
+			}
+		}
+	
+	private List<Type> types=new ArrayList<Type>();
+	
+	/** builds the model */
+	private void generateModel()
+		{
+		Random rand=new Random(this.seed);
+		List<Type> interfaces=new ArrayList<Type>();
+		List<Type> classes=new ArrayList<Type>();
+		int n=0;
+		int totalInterfaces=(this.countInterfaces< 0?this.countClasses/4:this.countInterfaces);
+		for(int i=0;i< totalInterfaces;++i)
+			{
+			Type t=new Type();
+			t.isInterface=true;
+			t.name="synth/p"+(n/this.classesPerPackage)+"/I"+i;
+			++n;
+			/* extends an interface */
+			if(!interfaces.isEmpty() && rand.nextBoolean())
+				{
+				t.interfaces.add(interfaces.get(rand.nextInt(interfaces.size())));
+				}
+			interfaces.add(t);
+			}
+		for(int i=0;i< this.countClasses;++i)
+			{
+			Type t=new Type();
+			t.isInterface=false;
+			t.name="synth/p"+(n/this.classesPerPackage)+"/C"+i;
+			++n;
+			/* extends a class, if the hierarchy is not too deep */
+			if(!classes.isEmpty() && rand.nextInt(10)!=0)
+				{
+				Type parent=classes.get(rand.nextInt(classes.size()));
+				if(parent.depth+1< this.maxDepth)
+					{
+					t.superType=parent;
+					t.depth=parent.depth+1;
+					}
+				}
+			if(!interfaces.isEmpty())
+				{
+				int nInterfaces=rand.nextInt(this.interfaceFanOut+1);
+				Set<Type> set=new LinkedHashSet<Type>();
+				for(int j=0;j< nInterfaces;++j) set.add(interfaces.get(rand.nextInt(interfaces.size())));
+				t.interfaces.addAll(set);
+				}
+			classes.add(t);
+			if(rand.nextDouble()< this.innerClassProbability)
+				{
+				Type inner=new Type();
+				inner.isInterface=false;
+				inner.name=t.name+"$Inner";
+				inner.declaringType=t;
+				if(!interfaces.isEmpty()) inner.interfaces.add(interfaces.get(rand.nextInt(interfaces.size())));
+				t.innerTypes.add(inner);
+				}
+			}
+		this.types.addAll(interfaces);
+		for(Type t:classes)
+			{
+			this.types.add(t);
+			this.types.addAll(t.innerTypes);
+			}
+		for(Type t:this.types)
+			{
+			String pack=(t.declaringType==null?t:t.declaringType).name;
+			pack=pack.substring(0,pack.lastIndexOf('/'));
+			t.jar=Math.abs(pack.hashCode())%this.countJars;
+			}
+		}
+	
+	/** writes the class file of this type */
+	private byte[] compile(Type t,Random rand) throws IOException
+		{
+		ConstantPool pool=new ConstantPool();
+		int thisIdx=pool.classRef(t.name);
+		int superIdx=pool.classRef(t.superType==null?"java/lang/Object":t.superType.name);
+		int interfacesIdx[]=new int[t.interfaces.size()];
+		for(int i=0;i< interfacesIdx.length;++i) interfacesIdx[i]=pool.classRef(t.interfaces.get(i).name);
+		
+		/* abstract methods, their signature use random generated types */
+		List<int[]> methods=new ArrayList<int[]>();
+		for(int i=0;i< this.countMethods;++i)
+			{
+			StringBuilder desc=new StringBuilder("(");
+			int nParams=rand.nextInt(this.maxParameters+1);
+			for(int j=0;j< nParams;++j)
+				{
+				desc.append(rand.nextBoolean()?"I":"L"+this.types.get(rand.nextInt(this.types.size())).name+";");
+				}
+			desc.append(")");
+			desc.append(rand.nextBoolean()?"V":"L"+this.types.get(rand.nextInt(this.types.size())).name+";");
+			methods.add(new int[]{pool.utf8("m"+i),pool.utf8(desc.toString())});
+			}
+		
+		/* InnerClasses attribute, both in the outer and in the inner class */
+		List<Type[]> innerClasses=new ArrayList<Type[]>();
+		for(Type inner:t.innerTypes) innerClasses.add(new Type[]{inner,t});
+		if(t.declaringType!=null) innerClasses.add(new Type[]{t,t.declaringType});
+		List<int[]> innerIdx=new ArrayList<int[]>();
+		for(Type[] pair:innerClasses)
+			{
+			innerIdx.add(new int[]{
+				pool.classRef(pair[0].name),
+				pool.classRef(pair[1].name),
+				pool.utf8(pair[0].name.substring(pair[0].name.lastIndexOf('$')+1))
+				});
+			}
+		int innerClassesAttIdx=(innerIdx.isEmpty()?0:pool.utf8("InnerClasses"));
+		
+		ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+		DataOutputStream out=new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(52);//java 8
+		pool.data.flush();
+		out.writeShort(pool.count);
+		out.write(pool.bytes.toByteArray());
+		final int ACC_PUBLIC=0x0001,ACC_STATIC=0x0008,ACC_SUPER=0x0020,ACC_INTERFACE=0x0200,ACC_ABSTRACT=0x0400;
+		out.writeShort(t.isInterface?ACC_PUBLIC|ACC_INTERFACE|ACC_ABSTRACT:ACC_PUBLIC|ACC_SUPER|ACC_ABSTRACT);
+		out.writeShort(thisIdx);
+		out.writeShort(superIdx);
+		out.writeShort(interfacesIdx.length);
+		for(int idx:interfacesIdx) out.writeShort(idx);
+		out.writeShort(0);//fields
+		out.writeShort(methods.size());
+		for(int[] m:methods)
+			{
+			out.writeShort(ACC_PUBLIC|ACC_ABSTRACT);
+			out.writeShort(m[0]);
+			out.writeShort(m[1]);
+			out.writeShort(0);//attributes
+			}
+		if(innerIdx.isEmpty())
+			{
+			out.writeShort(0);
+			}
+		else
+			{
+			out.writeShort(1);
+			out.writeShort(innerClassesAttIdx);
+			out.writeInt(2+innerIdx.size()*8);
+			out.writeShort(innerIdx.size());
+			for(int[] idx:innerIdx)
+				{
+				out.writeShort(idx[0]);
+				out.writeShort(idx[1]);
+				out.writeShort(idx[2]);
+				out.writeShort(ACC_PUBLIC|ACC_STATIC|ACC_ABSTRACT);
+				}
+			}
+		out.flush();
+		return bytes.toByteArray();
+		}
+	
+	/** writes the jars in this directory, returns the jar files */
+	List<File> write(File dir) throws IOException
+		{
+		if(!dir.exists() && !dir.mkdirs()) throw new IOException("Cannot create "+dir);
+		this.types.clear();
+		generateModel();
+		Random rand=new Random(this.seed+1);
+		List<File> jars=new ArrayList<File>();
+		for(int i=0;i< this.countJars;++i)
+			{
+			File jarFile=new File(dir,"synthetic"+(i+1)+".jar");
+			JarOutputStream jos=new JarOutputStream(new FileOutputStream(jarFile));
+			for(Type t:this.types)
+				{
+				if(t.jar!=i) continue;
+				jos.putNextEntry(new JarEntry(t.name+".class"));
+				jos.write(compile(t,rand));
+				jos.closeEntry();
+				}
+			jos.close();
+			jars.add(jarFile);
+			}
+		return jars;
+		}
+	
+	/** parses an option of the generator, returns the number of consumed arguments or 0 */
+	int parseOption(String args[],int optind)
+		{
+		if(optind+1>=args.length) return 0;
+		String opt=args[optind];
+		String value=args[optind+1];
+		if(opt.equals("-classes")) this.countClasses=Integer.parseInt(value);
+		else if(opt.equals("-interfaces")) this.countInterfaces=Integer.parseInt(value);
+		else if(opt.equals("-depth")) this.maxDepth=Integer.parseInt(value);
+		else if(opt.equals("-fanout")) this.interfaceFanOut=Integer.parseInt(value);
+		else if(opt.equals("-inner")) this.innerClassProbability=Double.parseDouble(value);
+		else if(opt.equals("-methods")) this.countMethods=Integer.parseInt(value);
+		else if(opt.equals("-params")) this.maxParameters=Integer.parseInt(value);
+		else if(opt.equals("-package-size")) this.classesPerPackage=Integer.parseInt(value);
+		else if(opt.equals("-jars")) this.countJars=Integer.parseInt(value);
+		else if(opt.equals("-seed")) this.seed=Long.parseLong(value);
+		else return 0;
+		return 2;
+		}
+	
+	static void usage()
+		{
+		System.err.println(" -classes (int) number of classes. Default: 1000");
+		System.err.println(" -interfaces (int) number of interfaces. Default: a quarter of the number of classes");
+		System.err.println(" -depth (int) max depth of the class hierarchy. Default: 6");
+		System.err.println(" -fanout (int) max number of interfaces implemented by a class. Default: 3");
+		System.err.println(" -inner (double) probability for a class to declare an inner class. Default: 0.2");
+		System.err.println(" -methods (int) number of methods per class. Default: 5");
+		System.err.println(" -params (int) max number of parameters per method. Default: 3");
+		System.err.println(" -package-size (int) number of types per package. Default: 50");
+		System.err.println(" -jars (int) number of jars. Default: 1");
+		System.err.println(" -seed (long) random seed. Default: 0");
+		}
+	
+	public static void main(String[] args) throws IOException
+		{
+		SyntheticClasspath app=new SyntheticClasspath();
+		int optind=0;
+		while(optind< args.length)
+			{
+			if(args[optind].equals("-h"))
+				{
+				System.err.println("Generates jars of synthetic classes.");
+				System.err.println("Usage: SyntheticClasspath [options] <output directory>");
+				usage();
+				return;
+				}
+			int n=app.parseOption(args, optind);
+			if(n==0) break;
+			optind+=n;
+			}
+		if(optind+1!=args.length)
+			{
+			System.err.println("Illegal number of arguments.");
+			usage();
+			System.exit(-1);
+			}
+		for(File f:app.write(new File(args[optind])))
+			{
+			System.out.println(f);
+			}
+		}
+	}
@@ -0,0 +1,185 @@
+/*
+ The MIT License (MIT)
+
+Copyright (c) 2014 Pierre Lindenbaum PhD
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.github.lindenb.java2graph;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Transitive reduction of the inheritance links (SUPER/IMPLEMENTS):
+ * the inheritance relations of a link A->C are removed when C can also be reached from A
+ * through a longer path e.g. A-[SUPER]->B-[IMPLEMENTS]->C. The other relations merged
+ * into the link are kept.
+ * @author lindenb
+ *
+ */
+class TransitiveReduction
+	{
+	/** logger */
+	private static final Logger LOG=Logger.getLogger("java2graph");
+	/** the nodes involved in an inheritance link */
+	private final List<ClassWrapper> nodes=new ArrayList<ClassWrapper>();
+	/** index of each node in 'nodes' */
+	private final Map<ClassWrapper,Integer> node2index=new HashMap<ClassWrapper,Integer>();
+	/** direct successors of each node */
+	private int successors[][];
+	/** the links, indexed like the successors */
+	private Link links[][];
+	/** nodes reachable from each node, through at least one link */
+	private BitSet reachable[];
+	
+	/** the relations reduced */
+	static final Set<Relation> INHERITANCE=EnumSet.of(Relation.SUPER,Relation.IMPLEMENTS);
+	
+	private int index(ClassWrapper cw)
+		{
+		Integer idx=this.node2index.get(cw);
+		if(idx==null)
+			{
+			idx=this.nodes.size();
+			this.nodes.add(cw);
+			this.node2index.put(cw, idx);
+			}
+		return idx;
+		}
+	
+	/** returns the links of 'allLinks' whose inheritance relations are redundant */
+	Set<Link> reduce(Iterable<Link> allLinks)
+		{
+		List<List<Link>> out=new ArrayList<List<Link>>();
+		for(Link L:allLinks)
+			{
+			if(!L.hasRelation(INHERITANCE)) continue;
+			int from=index(L.getFrom());
+			index(L.getTo());
+			while(out.size()< this.nodes.size()) out.add(new ArrayList<Link>());
+			out.get(from).add(L);
+			}
+		final int n=this.nodes.size();
+		while(out.size()< n) out.add(new ArrayList<Link>());
+		this.successors=new int[n][];
+		this.links=new Link[n][];
+		for(int i=0;i< n;++i)
+			{
+			List<Link> L=out.get(i);
+			this.links[i]=L.toArray(new Link[L.size()]);
+			this.successors[i]=new int[L.size()];
+			for(int j=0;j< L.size();++j)
+				{
+				this.successors[i][j]=this.node2index.get(L.get(j).getTo());
+				}
+			}
+		
+		/* group the nodes by their longest path to a node without successor. Kahn's algorithm on the reversed graph */
+		int remaining[]=new int[n];
+		List<List<Integer>> predecessors=new ArrayList<List<Integer>>(n);
+		for(int i=0;i< n;++i) predecessors.add(new ArrayList<Integer>());
+		for(int i=0;i< n;++i)
+			{
+			remaining[i]=this.successors[i].length;
+			for(int j:this.successors[i]) predecessors.get(j).add(i);
+			}
+		List<List<Integer>> levels=new ArrayList<List<Integer>>();
+		List<Integer> current=new ArrayList<Integer>();
+		for(int i=0;i< n;++i) if(remaining[i]==0) current.add(i);
+		int countSorted=0;
+		while(!current.isEmpty())
+			{
+			levels.add(current);
+			countSorted+=current.size();
+			List<Integer> next=new ArrayList<Integer>();
+			for(int j:current)
+				{
+				for(int i:predecessors.get(j))
+					{
+					if(--remaining[i]==0) next.add(i);
+					}
+				}
+			current=next;
+			}
+		if(countSorted!=n)
+			{
+			LOG.warning("inheritance graph contains a cycle: "+(n-countSorted)+" nodes won't be reduced");
+			}
+		
+		/* reachability, level by level: all the nodes of a level only depend on lower levels */
+		this.reachable=new BitSet[n];
+		for(List<Integer> level:levels)
+			{
+			final Integer array[]=level.toArray(new Integer[level.size()]);
+			Parallel.forEach(array.length,new Parallel.Body()
+				{
+				@Override
+				public void run(int index)
+					{
+					int i=array[index];
+					BitSet bits=new BitSet();
+					for(int j:successors[i])
+						{
+						bits.set(j);
+						bits.or(reachable[j]);
+						}
+					reachable[i]=bits;
+					}
+				});
+			}
+		
+		/* a link i->j is redundant if j is reachable from another successor of i */
+		@SuppressWarnings({"unchecked","rawtypes"})
+		final List<Link> redundant[]=new List[n];
+		Parallel.forEach(n,new Parallel.Body()
+			{
+			@Override
+			public void run(int i)
+				{
+				if(reachable[i]==null) return;//in a cycle
+				for(int a=0;a< successors[i].length;++a)
+					{
+					int j=successors[i][a];
+					for(int b=0;b< successors[i].length;++b)
+						{
+						int k=successors[i][b];
+						if(k==j || reachable[k]==null || !reachable[k].get(j)) continue;
+						if(redundant[i]==null) redundant[i]=new ArrayList<Link>();
+						redundant[i].add(links[i][a]);
+						break;
+						}
+					}
+				}
+			});
+		Set<Link> removed=new HashSet<Link>();
+		for(List<Link> L:redundant)
+			{
+			if(L!=null) removed.addAll(L);
+			}
+		return removed;
+		}
+	}